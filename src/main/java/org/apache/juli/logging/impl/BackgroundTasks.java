@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.slf4j.helpers.Util.report;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single daemon thread that runs the periodic tasks of latency summaries,
+ * rate limits and duplicates collapsing.
+ * <p>
+ * This thread is started by whichever thread schedules the first task, which
+ * might be a web application thread. So its context class loader is set to
+ * the class loader of this library, instead of being inherited, lest it pins
+ * the class loader of an undeployed web application.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+final class BackgroundTasks {
+
+    static final String THREAD_NAME = "juli-to-slf4j-background-tasks";
+
+    private BackgroundTasks() {
+        super();
+    }
+
+    /**
+     * Runs the given task periodically, with the given delay before the first
+     * run, and between runs. An exception thrown by a run is reported, and
+     * does not cancel the next runs.
+     *
+     * @param name
+     *            the name of the task, for diagnostics
+     * @param task
+     *            the task to run
+     * @param periodMillis
+     *            the period, in milliseconds
+     * @return the future that cancels the task
+     */
+    static ScheduledFuture<?> schedule(final String name, final Runnable task, final long periodMillis) {
+        return Holder.scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException | Error exc) {
+                    report("ERROR: unexpected issue while running the " + name + " background task", exc);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lazily holds the scheduler, so that its thread is only started when a
+     * first task is scheduled.
+     */
+    private static final class Holder {
+        static final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                thread.setContextClassLoader(BackgroundTasks.class.getClassLoader());
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Integer.getInteger;
+import static org.slf4j.helpers.Util.report;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collapses the logging events of {@link SLF4JDelegatingLog} facades that are
+ * repeated within a time window, so that floods of identical errors cost a
+ * table lookup instead of an appender write.
+ * <p>
+ * Collapsing is enabled with the {@value #WINDOW_PROPERTY} system property,
+ * set to the window duration in milliseconds. An event is a repetition when
+ * the same logger has logged an event with the same level, message and
+ * throwable class, less than a window ago. The first event is logged, and
+ * repetitions are only counted. When the window is over, a
+ * {@code "Message repeated N times in T ms: <message>"} event is logged at the
+ * same level by the same logger.
+ * <p>
+ * Fingerprints of recent events are kept in a fixed-size table, which size
+ * is set by the {@value #TABLE_SIZE_PROPERTY} system property, and defaults
+ * to {@value #DEFAULT_TABLE_SIZE}. Each fingerprint has exactly one slot,
+ * given by its hash, so that a lookup is a single array read. A new
+ * fingerprint evicts the one in its slot, and a background sweep evicts
+ * those whose window is over, every window. Evictions and repetitions are
+ * lock-free.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+final class DuplicateCollapser {
+
+    static final String WINDOW_PROPERTY = "juli.dedup.window";
+    static final String TABLE_SIZE_PROPERTY = "juli.dedup.tableSize";
+    static final int DEFAULT_TABLE_SIZE = 1024;
+
+    /** The window, in milliseconds, or zero when collapsing is disabled. */
+    private static final int WINDOW_MILLIS = Math.max(0, getInteger(WINDOW_PROPERTY, 0));
+
+    /** Whether collapsing is enabled. */
+    static final boolean ENABLED = WINDOW_MILLIS > 0;
+
+    private static final DuplicateCollapser collapser = new DuplicateCollapser(WINDOW_MILLIS,
+            getInteger(TABLE_SIZE_PROPERTY, DEFAULT_TABLE_SIZE));
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+
+    private final long windowNanos;
+    private final AtomicReferenceArray<Fingerprint> table;
+
+    /**
+     * @param windowMillis
+     *            the window, in milliseconds
+     * @param tableSize
+     *            the minimum size of the fingerprints table, rounded up to
+     *            the next power of two
+     */
+    DuplicateCollapser(final int windowMillis, final int tableSize) {
+        super();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.table = new AtomicReferenceArray<Fingerprint>(Integer.highestOneBit(Math.max(1, tableSize) * 2 - 1));
+    }
+
+    /**
+     * Tells whether an event repeats a recent one, in which case it is counted
+     * and must not be logged. Otherwise, its fingerprint is recorded, and any
+     * fingerprint it evicts is summarized.
+     *
+     * @param name
+     *            the name of the logger
+     * @param level
+     *            the level of the event
+     * @param msg
+     *            the message of the event
+     * @param thrown
+     *            the throwable of the event, or {@code null}
+     * @return {@code true} if the event is a repetition, or {@code false} if
+     *         it is to be logged.
+     */
+    static boolean isRepeated(final String name, final int level, final String msg, final Throwable thrown) {
+        return collapser.isRepeated(name, level, msg, thrown, System.nanoTime());
+    }
+
+    /**
+     * The implementation of {@link #isRepeated(String, int, String, Throwable)}
+     * for the given current time, in nanoseconds.
+     */
+    boolean isRepeated(final String name, final int level, final String msg, final Throwable thrown,
+            final long now) {
+        Class<?> thrownClass = thrown == null ? null : thrown.getClass();
+        int hash = hash(name, level, msg, thrownClass);
+        int slot = hash & table.length() - 1;
+
+        Fingerprint recent = table.get(slot);
+        if (recent != null && recent.matches(hash, name, level, msg, thrownClass)
+                && now - recent.firstSeen <= windowNanos && recent.repeat(now)) {
+            return true;
+        }
+        Fingerprint evicted = table.getAndSet(slot, new Fingerprint(hash, name, level, msg, thrownClass, now));
+        if (evicted != null) {
+            evicted.summarize();
+        }
+        return false;
+    }
+
+    private static int hash(final String name, final int level, final String msg, final Class<?> thrownClass) {
+        int hash = name.hashCode();
+        hash = 31 * hash + level;
+        hash = 31 * hash + msg.hashCode();
+        hash = 31 * hash + (thrownClass == null ? 0 : thrownClass.hashCode());
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Evicts and summarizes the fingerprints whose window is over at the given
+     * time, in nanoseconds.
+     */
+    void sweep(final long now) {
+        for (int slot = 0; slot < table.length(); ++slot) {
+            Fingerprint fingerprint = table.get(slot);
+            if (fingerprint != null && now - fingerprint.firstSeen > windowNanos
+                    && table.compareAndSet(slot, fingerprint, null)) {
+                fingerprint.summarize();
+            }
+        }
+    }
+
+    /**
+     * Schedules the background sweep of fingerprints, unless collapsing is
+     * disabled or this has already been done.
+     */
+    static void start() {
+        if (!ENABLED || !started.compareAndSet(false, true)) {
+            return;
+        }
+        BackgroundTasks.schedule("duplicates sweep", new Runnable() {
+            @Override
+            public void run() {
+                collapser.sweep(System.nanoTime());
+            }
+        }, WINDOW_MILLIS);
+    }
+
+    /**
+     * The fingerprint of a logged event, which value is the number of its
+     * repetitions, or {@link #CLOSED} once it has been evicted.
+     */
+    static final class Fingerprint extends AtomicLong {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long CLOSED = Long.MIN_VALUE;
+
+        private final int hash;
+        private final String name;
+        private final int level;
+        private final String msg;
+        private final Class<?> thrownClass;
+        private final long firstSeen;
+        private volatile long lastSeen;
+
+        Fingerprint(final int hash, final String name, final int level, final String msg,
+                final Class<?> thrownClass, final long now) {
+            super();
+            this.hash = hash;
+            this.name = name;
+            this.level = level;
+            this.msg = msg;
+            this.thrownClass = thrownClass;
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+
+        boolean matches(final int hash, final String name, final int level, final String msg,
+                final Class<?> thrownClass) {
+            return this.hash == hash && this.level == level && this.thrownClass == thrownClass
+                    && this.name.equals(name) && this.msg.equals(msg);
+        }
+
+        /**
+         * Counts a repetition, unless this fingerprint has been evicted.
+         */
+        boolean repeat(final long now) {
+            long repeats = get();
+            while (repeats != CLOSED) {
+                if (compareAndSet(repeats, repeats + 1)) {
+                    lastSeen = now;
+                    return true;
+                }
+                repeats = get();
+            }
+            return false;
+        }
+
+        /**
+         * Closes this evicted fingerprint, and logs its repetitions, if any.
+         * Fingerprints only hold the name of their logger, lest they pin the
+         * class loader of an undeployed web application, so the delegate is
+         * resolved here.
+         */
+        void summarize() {
+            long repeats = getAndSet(CLOSED);
+            if (repeats <= 0) {
+                return;
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(lastSeen - firstSeen);
+            String summary = "Message repeated " + repeats + " times in " + millis + " ms: " + msg;
+            try {
+                LoggerDelegate delegate = new SLF4JDelegatingLog(name).delegate;
+                if (delegate.isEnabled(level)) {
+                    delegate.log(level, summary, null);
+                }
+            } catch (RuntimeException exc) {
+                report("WARN: could not log the repetitions of [" + name + "]: " + summary, exc);
+            }
+        }
+    }
+}
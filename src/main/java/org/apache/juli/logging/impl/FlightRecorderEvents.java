@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+/**
+ * Emits Java Flight Recorder events for the bootstrap phases, the replay of
+ * pre-bootstrap events, the swap of pre-bootstrap loggers, and slow logging
+ * calls.
+ * <p>
+ * Each event is started by a {@code begin*()} method, that returns an opaque
+ * event, or {@code null} when the event is not recorded. The event is then
+ * given to the matching {@code end*()} method, that accepts {@code null}.
+ * <p>
+ * This base implementation does nothing, because JFR events cannot be
+ * defined before Java 11. This Jar is a multi-release Jar though, and on Java
+ * 11 and later, this class is replaced by an implementation that actually
+ * emits events.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+        super();
+    }
+
+    /**
+     * This is a method, and not a constant, so that the value of the actual
+     * implementation is not inlined by the compiler in other classes.
+     *
+     * @return {@code false}, because this implementation emits no event.
+     */
+    static boolean available() {
+        return false;
+    }
+
+    /**
+     * @return {@code null}, because this implementation emits no event.
+     */
+    static Object beginBootstrapPhase() {
+        return null;
+    }
+
+    /**
+     * @param event
+     *            the event returned by {@link #beginBootstrapPhase()}
+     * @param phase
+     *            the name of the bootstrap phase
+     */
+    static void endBootstrapPhase(final Object event, final String phase) {
+        // Nothing to do
+    }
+
+    /**
+     * @return {@code null}, because this implementation emits no event.
+     */
+    static Object beginReplay() {
+        return null;
+    }
+
+    /**
+     * @param event
+     *            the event returned by {@link #beginReplay()}
+     * @param eventCount
+     *            the number of replayed pre-bootstrap events
+     * @param loggerCount
+     *            the number of distinct loggers they have been replayed to
+     */
+    static void endReplay(final Object event, final int eventCount, final int loggerCount) {
+        // Nothing to do
+    }
+
+    /**
+     * @return {@code null}, because this implementation emits no event.
+     */
+    static Object beginLoggerSwap() {
+        return null;
+    }
+
+    /**
+     * @param event
+     *            the event returned by {@link #beginLoggerSwap()}
+     * @param loggerCount
+     *            the number of swapped pre-bootstrap loggers
+     */
+    static void endLoggerSwap(final Object event, final int loggerCount) {
+        // Nothing to do
+    }
+
+    /**
+     * @return {@code null}, because this implementation emits no event.
+     */
+    static Object beginLogCall() {
+        return null;
+    }
+
+    /**
+     * @param event
+     *            the event returned by {@link #beginLogCall()}
+     * @param loggerName
+     *            the name of the logger
+     * @param level
+     *            the level of the logging event
+     */
+    static void endLogCall(final Object event, final String loggerName, final int level) {
+        // Nothing to do
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import org.slf4j.Logger;
+import org.slf4j.spi.LocationAwareLogger;
+
+/**
+ * The last resort replayer, that supports any SLF4J backend.
+ * <p>
+ * Events are replayed through the {@link LocationAwareLogger} interface when
+ * possible, so that the caller data is properly computed, or through the plain
+ * {@link Logger} interface otherwise. In both cases, the backend applies its
+ * own level filtering, and the original timestamp of events is lost.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapReplayer
+ */
+final class GenericReplayer implements PreBootstrapReplayer {
+
+    @Override
+    public boolean supports(final Logger logger) {
+        return true;
+    }
+
+    @Override
+    public void replay(final Logger logger, final PreBootstrapLoggingEvent event) {
+        if (logger instanceof LocationAwareLogger) {
+            ((LocationAwareLogger) logger).log(null, event.fqcn, event.level, event.msg, null, event.thrown);
+            return;
+        }
+        switch (event.level) {
+        case TRACE_INT:
+            logger.trace(event.msg, event.thrown);
+            break;
+        case DEBUG_INT:
+            logger.debug(event.msg, event.thrown);
+            break;
+        case INFO_INT:
+            logger.info(event.msg, event.thrown);
+            break;
+        case WARN_INT:
+            logger.warn(event.msg, event.thrown);
+            break;
+        default:
+            logger.error(event.msg, event.thrown);
+            break;
+        }
+    }
+}
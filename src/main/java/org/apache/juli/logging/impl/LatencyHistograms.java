@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.numberOfLeadingZeros;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+
+/**
+ * Records the time that {@link SLF4JDelegatingLog} facades spend in the
+ * logging backend, so that request threads that stall on a blocked appender
+ * can be noticed.
+ * <p>
+ * Timing is enabled with the {@value #SAMPLING_PROPERTY} system property, set
+ * to the number of logging events out of which one is timed, e.g.
+ * {@code 100}. When disabled, which is the default, the JIT compiler removes
+ * the timing code from the facades. The sampling decision only draws a
+ * thread-local random number, so that sampled timing stays cheap.
+ * <p>
+ * Durations are recorded in lock-free log-linear histograms, one per level.
+ * Each power of two is split into 8 linear buckets, so that percentiles are
+ * known within 12.5%, from nanoseconds up to several minutes, with a few
+ * hundreds of counters.
+ * <p>
+ * Cumulated percentiles are exposed as the {@value #OBJECT_NAME} MBean, that
+ * {@link SeparateLogbackSupport} registers at bootstrap time. A summary of
+ * the events that have been timed since the previous one is also logged
+ * every {@value #SUMMARY_PERIOD_PROPERTY} seconds, which defaults to
+ * {@value #DEFAULT_SUMMARY_PERIOD} and can be set to {@code 0} in order to
+ * disable summaries.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see LatencyHistogramsMBean
+ */
+final class LatencyHistograms {
+
+    static final String SAMPLING_PROPERTY = "juli.latency.sampling";
+    static final String SUMMARY_PERIOD_PROPERTY = "juli.latency.summaryPeriod";
+    static final int DEFAULT_SUMMARY_PERIOD = 60;
+
+    static final String OBJECT_NAME = "org.apache.juli.logging:type=LatencyHistograms";
+
+    /** One logging event out of this number is timed, or none when zero. */
+    static final int SAMPLING = Math.max(0, getInteger(SAMPLING_PROPERTY, 0));
+
+    /** Whether timing is enabled. */
+    static final boolean ENABLED = SAMPLING > 0;
+
+    /** The number of levels, from {@code TRACE} to {@code ERROR}. */
+    private static final int LEVELS = 5;
+
+    private static final String[] LEVEL_NAMES = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR" };
+
+    /** The number of bits that split each power of two in linear buckets. */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** The highest power of two that is tracked, i.e. about 18 minutes. */
+    private static final int MAX_EXPONENT = 40;
+
+    /** The number of buckets of each histogram. */
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    /** The bucket counts of all levels, one histogram after the other. */
+    private static final AtomicLongArray buckets = new AtomicLongArray(LEVELS * BUCKETS);
+
+    /** The exact maximum of each level. */
+    private static final AtomicLongArray maxima = new AtomicLongArray(LEVELS);
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+
+    private LatencyHistograms() {
+        super();
+    }
+
+    /**
+     * @return {@code true} when the current logging event is to be timed, or
+     *         {@code false} otherwise.
+     */
+    static boolean sampled() {
+        return SAMPLING == 1 || ThreadLocalRandom.current().nextInt(SAMPLING) == 0;
+    }
+
+    /**
+     * Records the time spent in the logging backend for an event.
+     *
+     * @param level
+     *            the level of the event
+     * @param nanos
+     *            the time spent, in nanoseconds
+     */
+    static void record(final int level, final long nanos) {
+        int histogram = (level - TRACE_INT) / (DEBUG_INT - TRACE_INT);
+        buckets.getAndIncrement(histogram * BUCKETS + bucketOf(nanos));
+        long max = maxima.get(histogram);
+        while (nanos > max && !maxima.compareAndSet(histogram, max, nanos)) {
+            max = maxima.get(histogram);
+        }
+    }
+
+    /**
+     * @return the index of the bucket for the given duration.
+     */
+    static int bucketOf(final long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> exponent - SUB_BITS) & SUB_BUCKETS - 1;
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest duration that falls into the given bucket.
+     */
+    static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * @return a copy of the bucket counts of all levels.
+     */
+    static long[] snapshot() {
+        long[] counts = new long[buckets.length()];
+        for (int idx = 0; idx < counts.length; ++idx) {
+            counts[idx] = buckets.get(idx);
+        }
+        return counts;
+    }
+
+    private static long count(final long[] counts, final int histogram) {
+        long count = 0;
+        for (int idx = histogram * BUCKETS; idx < (histogram + 1) * BUCKETS; ++idx) {
+            count += counts[idx];
+        }
+        return count;
+    }
+
+    /**
+     * @return the upper bound of the bucket where the given quantile of the
+     *         given histogram falls, or {@code 0} when it is empty.
+     */
+    static long quantile(final long[] counts, final int histogram, final double quantile) {
+        long count = count(counts, histogram);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long cumulated = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            cumulated += counts[histogram * BUCKETS + bucket];
+            if (cumulated >= rank) {
+                return upperBoundOf(bucket);
+            }
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    private static long[] quantiles(final long[] counts, final double quantile) {
+        long[] quantiles = new long[LEVELS];
+        for (int histogram = 0; histogram < LEVELS; ++histogram) {
+            quantiles[histogram] = quantile(counts, histogram, quantile);
+        }
+        return quantiles;
+    }
+
+    /**
+     * Registers the {@value #OBJECT_NAME} MBean and schedules the periodic
+     * summaries, unless timing is disabled or this has already been done.
+     */
+    static void start() {
+        if (!ENABLED || !started.compareAndSet(false, true)) {
+            return;
+        }
+        SeparateLogbackSupport.registerMBean(OBJECT_NAME, new Management(), LatencyHistogramsMBean.class);
+        int period = getInteger(SUMMARY_PERIOD_PROPERTY, DEFAULT_SUMMARY_PERIOD);
+        if (period > 0) {
+            long periodMillis = TimeUnit.SECONDS.toMillis(period);
+            BackgroundTasks.schedule("latency summary", new Summary(period), periodMillis);
+        }
+    }
+
+    /**
+     * Logs a summary of the events that have been timed since the previous
+     * summary, unless there is none.
+     */
+    private static final class Summary implements Runnable {
+
+        private final int period;
+        private long[] previous = new long[LEVELS * BUCKETS];
+
+        Summary(final int period) {
+            super();
+            this.period = period;
+        }
+
+        @Override
+        public void run() {
+            long[] current = snapshot();
+            long[] interval = new long[current.length];
+            for (int idx = 0; idx < current.length; ++idx) {
+                interval[idx] = current[idx] - previous[idx];
+            }
+            previous = current;
+
+            StringBuilder summary = new StringBuilder();
+            for (int histogram = 0; histogram < LEVELS; ++histogram) {
+                long count = count(interval, histogram);
+                if (count > 0) {
+                    summary.append(summary.length() == 0 ? "" : "; ").append(LEVEL_NAMES[histogram]).append(": ")
+                            .append(count).append(" timed, p50=").append(quantile(interval, histogram, 0.5))
+                            .append(" p99=").append(quantile(interval, histogram, 0.99)).append(" p999=")
+                            .append(quantile(interval, histogram, 0.999)).append(" max=")
+                            .append(quantile(interval, histogram, 1.0)).append(" ns");
+                }
+            }
+            if (summary.length() == 0) {
+                return;
+            }
+            try {
+                Logger logger = SeparateLogbackSupport.obtainLogger(LatencyHistograms.class.getName());
+                logger.info("Time spent in the logging backend over the last " + period + " s, one event out of "
+                        + SAMPLING + " timed: " + summary);
+            } catch (RuntimeException exc) {
+                report("WARN: could not log the latency summary: " + summary, exc);
+            }
+        }
+    }
+
+    /** The MBean that exposes the cumulated histograms. */
+    static final class Management implements LatencyHistogramsMBean {
+
+        @Override
+        public int getSamplingRate() {
+            return SAMPLING;
+        }
+
+        @Override
+        public long[] getCounts() {
+            long[] counts = snapshot();
+            long[] totals = new long[LEVELS];
+            for (int histogram = 0; histogram < LEVELS; ++histogram) {
+                totals[histogram] = count(counts, histogram);
+            }
+            return totals;
+        }
+
+        @Override
+        public long[] getP50() {
+            return capped(quantiles(snapshot(), 0.5));
+        }
+
+        @Override
+        public long[] getP99() {
+            return capped(quantiles(snapshot(), 0.99));
+        }
+
+        @Override
+        public long[] getP999() {
+            return capped(quantiles(snapshot(), 0.999));
+        }
+
+        /**
+         * Caps quantiles, that are bucket upper bounds, to the exact maximum.
+         */
+        private long[] capped(final long[] quantiles) {
+            long[] max = getMax();
+            for (int histogram = 0; histogram < LEVELS; ++histogram) {
+                quantiles[histogram] = Math.min(quantiles[histogram], max[histogram]);
+            }
+            return quantiles;
+        }
+
+        @Override
+        public long[] getMax() {
+            long[] max = new long[LEVELS];
+            for (int histogram = 0; histogram < LEVELS; ++histogram) {
+                max[histogram] = maxima.get(histogram);
+            }
+            return max;
+        }
+    }
+}
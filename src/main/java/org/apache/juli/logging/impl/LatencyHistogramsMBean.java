@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+/**
+ * The management interface of the {@link LatencyHistograms}, that tells how
+ * much time request threads spend in the logging backend.
+ * <p>
+ * Values are given for {@code TRACE}, {@code DEBUG}, {@code INFO},
+ * {@code WARN} and {@code ERROR} levels, in this order, and durations are in
+ * nanoseconds. Percentiles are the upper bound of the histogram bucket they
+ * fall into, which is at most 12.5% above the actual value.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+public interface LatencyHistogramsMBean {
+
+    /**
+     * @return the sampling rate, i.e. one logging event out of this number is
+     *         timed.
+     */
+    int getSamplingRate();
+
+    /**
+     * @return the number of timed logging events, per level.
+     */
+    long[] getCounts();
+
+    /**
+     * @return the median time spent in the logging backend, per level.
+     */
+    long[] getP50();
+
+    /**
+     * @return the 99th percentile of the time spent in the logging backend,
+     *         per level.
+     */
+    long[] getP99();
+
+    /**
+     * @return the 99.9th percentile of the time spent in the logging backend,
+     *         per level.
+     */
+    long[] getP999();
+
+    /**
+     * @return the maximum time spent in the logging backend, per level.
+     */
+    long[] getMax();
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.String.valueOf;
+import static org.apache.juli.logging.impl.Log4j2Support.FATAL_INT;
+import static org.apache.juli.logging.impl.Log4j2Support.threshold;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.impl.Log4j2Support.Log4j2Logger;
+
+/**
+ * A {@link Log} facade that can be plugged into the default Tomcat JULI logging
+ * system, and that directly targets the
+ * <a href="https://logging.apache.org/log4j/2.x/">Log4j 2</a> API, bypassing
+ * SLF4J.
+ * <p>
+ * Messages are passed to Log4j 2 as plain objects, so that they are never
+ * converted to {@link String} by this facade, and the garbage-free code paths
+ * of Log4j 2 apply. The {@code FATAL} level is kept as such.
+ * <p>
+ * This facade is an alternative to {@link SLF4JDelegatingLog}. It is selected
+ * by declaring it in the {@code META-INF/services/org.apache.juli.logging.Log}
+ * file, as done in the {@code log4j2} classifier Jar of this project. The SLF4J
+ * API is still required on the system class path, though, for diagnostics.
+ * <p>
+ * Before Log4j 2 is bootstrapped by {@link Log4j2Support}, logging events are
+ * stored as {@link PreBootstrapLoggingEvent}s, just like with the
+ * {@link SLF4JDelegatingLog} facade, and the same
+ * {@code juli.preBootstrap.*} settings apply. Pre-bootstrap {@code FATAL}
+ * events are stored as {@code ERROR} events, though.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see Log4j2Support
+ */
+public class Log4j2DelegatingLog implements Log, Serializable {
+
+    private static final long serialVersionUID = -2235089157618745394L;
+
+    static final String FQCN = Log4j2DelegatingLog.class.getName();
+
+    /**
+     * The logger's name.
+     */
+    protected String name;
+
+    /**
+     * The underlying Log4j 2 logger, or {@code null} before bootstrap.
+     * <p>
+     * This field is not volatile on purpose. It is only set once, with an
+     * immutable object, after the logging system is bootstrapped.
+     */
+    private transient Log4j2Logger logger;
+
+    /**
+     * The default constructor is mandatory, as per the
+     * {@link java.util.ServiceLoader ServiceLoader} specification.
+     * <p>
+     * This will construct an unusable {@link Log}, though.
+     */
+    public Log4j2DelegatingLog() {
+        super();
+    }
+
+    /**
+     * This {@link String}-based constructor is required by the default "lean"
+     * JULI {@link org.apache.juli.logging.LogFactory LogFactory}, in order to
+     * accept this class a a {@link Log} implementation
+     * {@linkplain java.util.ServiceLoader provider}.
+     *
+     * @param name
+     *            the name of the logger to create.
+     */
+    public Log4j2DelegatingLog(final String name) {
+        super();
+        this.name = name;
+        logger();
+    }
+
+    /**
+     * @return the underlying logger, or {@code null} when the logging system
+     *         is not bootstrapped yet.
+     */
+    private Log4j2Logger logger() {
+        Log4j2Logger current = logger;
+        if (current == null) {
+            Log4j2Support backend = Log4j2Support.backend();
+            if (backend != null) {
+                current = backend.getLogger(name);
+                logger = current;
+            }
+        }
+        return current;
+    }
+
+    private boolean isEnabled(final int level) {
+        Log4j2Logger current = logger();
+        return current == null ? level >= threshold : current.isEnabled(level);
+    }
+
+    private void log(final int level, final Object msg, final Throwable thrown) {
+        Log4j2Logger current = logger();
+        if (current != null) {
+            current.log(FQCN, level, msg, thrown);
+            return;
+        }
+        if (level < threshold
+                || PreBootstrapLoggingEvent.add(name, FQCN, Math.min(level, ERROR_INT), valueOf(msg), thrown)) {
+            return;
+        }
+        // Pre-bootstrap events are being flushed
+        Log4j2Support backend = Log4j2Support.awaitBackend();
+        if (backend != null) {
+            current = backend.getLogger(name);
+            logger = current;
+            current.log(FQCN, level, msg, thrown);
+        } else {
+            report("ERROR: the logging system could not be bootstrapped. Discarding logging event: " + msg);
+        }
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return isEnabled(TRACE_INT);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return isEnabled(DEBUG_INT);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return isEnabled(INFO_INT);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return isEnabled(WARN_INT);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return isEnabled(ERROR_INT);
+    }
+
+    @Override
+    public boolean isFatalEnabled() {
+        return isEnabled(FATAL_INT);
+    }
+
+    @Override
+    public void trace(final Object msg) {
+        log(TRACE_INT, msg, null);
+    }
+
+    @Override
+    public void trace(final Object msg, final Throwable thrown) {
+        log(TRACE_INT, msg, thrown);
+    }
+
+    @Override
+    public void debug(final Object msg) {
+        log(DEBUG_INT, msg, null);
+    }
+
+    @Override
+    public void debug(final Object msg, final Throwable thrown) {
+        log(DEBUG_INT, msg, thrown);
+    }
+
+    @Override
+    public void info(final Object msg) {
+        log(INFO_INT, msg, null);
+    }
+
+    @Override
+    public void info(final Object msg, final Throwable thrown) {
+        log(INFO_INT, msg, thrown);
+    }
+
+    @Override
+    public void warn(final Object msg) {
+        log(WARN_INT, msg, null);
+    }
+
+    @Override
+    public void warn(final Object msg, final Throwable thrown) {
+        log(WARN_INT, msg, thrown);
+    }
+
+    @Override
+    public void error(final Object msg) {
+        log(ERROR_INT, msg, null);
+    }
+
+    @Override
+    public void error(final Object msg, final Throwable thrown) {
+        log(ERROR_INT, msg, thrown);
+    }
+
+    @Override
+    public void fatal(final Object msg) {
+        log(FATAL_INT, msg, null);
+    }
+
+    @Override
+    public void fatal(final Object msg, final Throwable thrown) {
+        log(FATAL_INT, msg, thrown);
+    }
+
+    /**
+     * Replace the deserialized instance with a fresh new
+     * {@link Log4j2DelegatingLog} logger of the same name.
+     *
+     * @return a homonymous logger.
+     * @throws ObjectStreamException
+     *             actually never thrown by this implementation.
+     */
+    protected Object readResolve() throws ObjectStreamException {
+        return new Log4j2DelegatingLog(name);
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Runtime.getRuntime;
+import static java.lang.Thread.currentThread;
+import static java.lang.invoke.MethodType.methodType;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Binds {@link Log4j2DelegatingLog} facades to the
+ * <a href="https://logging.apache.org/log4j/2.x/">Log4j 2</a> API, without
+ * going through SLF4J.
+ * <p>
+ * Just like Logback for {@link SeparateLogbackSupport}, Log4j 2 is typically
+ * on the Catalina class path, and is not accessible with the class loader that
+ * has loaded this class. That's why Log4j 2 is accessed through
+ * {@link MethodHandle}s, that are resolved once at bootstrap time. Messages
+ * are passed to {@code ExtendedLogger.logIfEnabled()} as plain objects, so
+ * that they are only formatted when the level is enabled, and so that the
+ * garbage-free code paths of Log4j 2 apply.
+ * <p>
+ * The bootstrap follows the same rules as the {@link SeparateLogbackSupport}
+ * one. When the Log4j 2 API is on the system class path, it is used right
+ * away. Otherwise, the bootstrap is deferred until the Catalina class loader
+ * is detected as the context class loader. Meanwhile, logging events are
+ * stored as {@link PreBootstrapLoggingEvent}s, and they are replayed to Log4j
+ * 2 at bootstrap time. Their original timestamp is lost, though.
+ * <p>
+ * Levels are those defined by the {@link org.slf4j.spi.LocationAwareLogger}
+ * interface, plus {@link #FATAL_INT}.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see Log4j2DelegatingLog
+ */
+final class Log4j2Support {
+
+    private static final String LOG4J_EXTENDED_LOGGER_RSC = "org/apache/logging/log4j/spi/ExtendedLogger.class";
+
+    static final String LOG4J_LOG_MANAGER_CLASS = "org.apache.logging.log4j.LogManager";
+    static final String LOG4J_LOGGER_CONTEXT_CLASS = "org.apache.logging.log4j.spi.LoggerContext";
+    static final String LOG4J_EXTENDED_LOGGER_CLASS = "org.apache.logging.log4j.spi.ExtendedLogger";
+    static final String LOG4J_LEVEL_CLASS = "org.apache.logging.log4j.Level";
+    static final String LOG4J_MARKER_CLASS = "org.apache.logging.log4j.Marker";
+
+    /** The {@code FATAL} level, that SLF4J does not define. */
+    static final int FATAL_INT = ERROR_INT + 10;
+
+    /** The names of Log4j 2 level constants, indexed by level divided by ten. */
+    private static final String[] LOG4J_LEVEL_FIELDS = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL" };
+
+    /** The provisional threshold for pre-bootstrap logging events. */
+    static final int threshold = ProvisionalThreshold.resolve();
+
+    /**
+     * The class loader that has loaded this class, typically the System class
+     * loader.
+     */
+    private static final ClassLoader systemLoader = Log4j2Support.class.getClassLoader();
+
+    /** Whether the Log4j 2 API is on the system class path. */
+    private static final boolean doBootstrapASAP = null != systemLoader
+            && null != systemLoader.getResource(LOG4J_EXTENDED_LOGGER_RSC);
+
+    /** Becomes {@code true} when the bootstrap starts, so that it only starts once. */
+    private static final AtomicBoolean bootstrapStarted = new AtomicBoolean(false);
+
+    /**
+     * The bound Log4j 2 API, or {@code null} before bootstrap. It is only set
+     * once, with the bootstrap lock held, after pre-bootstrap events have been
+     * replayed.
+     */
+    private static volatile Log4j2Support backend;
+
+    /**
+     * The lock that is held while bootstrapping. This is not a monitor, so
+     * that virtual threads that wait for the bootstrap do not pin their
+     * carrier thread.
+     */
+    private static final ReentrantLock bootstrapLock = new ReentrantLock();
+
+    static {
+        if (!doBootstrapASAP) {
+            runBootstrapAtShutdownIfNotYetDone();
+        }
+    }
+
+    /** {@code LoggerContext.getLogger(String)}, bound to the logger context. */
+    private final MethodHandle getLogger;
+
+    /** {@code ExtendedLogger.isEnabled(Level)} */
+    private final MethodHandle isEnabled;
+
+    /** {@code ExtendedLogger.logIfEnabled(String, Level, Marker, Object, Throwable)}, with a {@code null} marker. */
+    private final MethodHandle logIfEnabled;
+
+    /** The Log4j 2 levels, indexed by level divided by ten. */
+    private final Object[] levels = new Object[LOG4J_LEVEL_FIELDS.length];
+
+    /**
+     * Resolves the Log4j 2 logger context for the given class loader, and all
+     * the method handles that are necessary to log events.
+     */
+    private Log4j2Support(final ClassLoader log4jLoader) throws ReflectiveOperationException {
+        super();
+        Class<?> logManagerClass = log4jLoader.loadClass(LOG4J_LOG_MANAGER_CLASS);
+        Class<?> loggerContextClass = log4jLoader.loadClass(LOG4J_LOGGER_CONTEXT_CLASS);
+        Class<?> extendedLoggerClass = log4jLoader.loadClass(LOG4J_EXTENDED_LOGGER_CLASS);
+        Class<?> levelClass = log4jLoader.loadClass(LOG4J_LEVEL_CLASS);
+        Class<?> markerClass = log4jLoader.loadClass(LOG4J_MARKER_CLASS);
+
+        Object loggerContext = logManagerClass.getMethod("getContext", ClassLoader.class, boolean.class)
+                .invoke(null, log4jLoader, false);
+        for (int idx = 0; idx < LOG4J_LEVEL_FIELDS.length; ++idx) {
+            levels[idx] = levelClass.getField(LOG4J_LEVEL_FIELDS[idx]).get(null);
+        }
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        getLogger = lookup.findVirtual(loggerContextClass, "getLogger", methodType(extendedLoggerClass, String.class))
+                .bindTo(loggerContext).asType(methodType(Object.class, String.class));
+        isEnabled = lookup.findVirtual(extendedLoggerClass, "isEnabled", methodType(boolean.class, levelClass))
+                .asType(methodType(boolean.class, Object.class, Object.class));
+        MethodHandle log = lookup.findVirtual(extendedLoggerClass, "logIfEnabled",
+                methodType(void.class, String.class, levelClass, markerClass, Object.class, Throwable.class));
+        logIfEnabled = MethodHandles.insertArguments(log, 3, new Object[] { null })
+                .asType(methodType(void.class, Object.class, String.class, Object.class, Object.class,
+                        Throwable.class));
+    }
+
+    /**
+     * @return the bound Log4j 2 API, or {@code null} when the logging system
+     *         is not bootstrapped yet. The bootstrap is started whenever
+     *         possible.
+     */
+    static Log4j2Support backend() {
+        Log4j2Support current = backend;
+        if (current != null) {
+            return current;
+        }
+        bootstrapLoggingSystemIfPossible();
+        return backend;
+    }
+
+    /**
+     * Waits for any ongoing bootstrap to complete.
+     *
+     * @return the bound Log4j 2 API, or {@code null} when the bootstrap has
+     *         failed.
+     */
+    static Log4j2Support awaitBackend() {
+        bootstrapLock.lock();
+        try {
+            return backend;
+        } finally {
+            bootstrapLock.unlock();
+        }
+    }
+
+    /**
+     * Starts the bootstrapping process when the Log4j 2 API is on the system
+     * class path, or when the expected Catalina class loader is detected and
+     * has the Log4j 2 API.
+     */
+    private static void bootstrapLoggingSystemIfPossible() {
+        if (bootstrapStarted.get()) {
+            return;
+        }
+        if (doBootstrapASAP) {
+            bootstrap(systemLoader);
+            return;
+        }
+        ClassLoader catalinaLoader = currentThread().getContextClassLoader();
+        if (catalinaLoader != systemLoader && catalinaLoader instanceof java.net.URLClassLoader
+                && catalinaLoader.getResource(LOG4J_EXTENDED_LOGGER_RSC) != null) {
+            bootstrap(catalinaLoader);
+        }
+    }
+
+    /**
+     * Bootstraps Log4j 2, unless it has already been started. When the
+     * bootstrap fails, the next log request tries again.
+     */
+    private static void bootstrap(final ClassLoader log4jLoader) {
+        if (!bootstrapStarted.compareAndSet(false, true)) {
+            return;
+        }
+        boolean bootstrapped = false;
+        bootstrapLock.lock();
+        try {
+            bootstrapped = doBootstrap(log4jLoader);
+        } finally {
+            if (!bootstrapped) {
+                bootstrapStarted.set(false);
+            }
+            bootstrapLock.unlock();
+        }
+    }
+
+    /**
+     * Binds the Log4j 2 API and replays pre-bootstrap events. Must be called
+     * with the bootstrap lock held.
+     *
+     * @return {@code true} on success, or {@code false} otherwise.
+     */
+    private static boolean doBootstrap(final ClassLoader log4jLoader) {
+        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            report("Log4j2Support.doBootstrap('" + log4jLoader + "')");
+        }
+        Log4j2Support support;
+        try {
+            support = new Log4j2Support(log4jLoader);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException exc) {
+            report("ERROR: could not bind to Log4j 2 with [" + log4jLoader + "]", exc);
+            return false;
+        }
+        support.replay(PreBootstrapLoggingEvent.drainEvents());
+        backend = support;
+        return true;
+    }
+
+    /**
+     * Replays pre-bootstrap logging events, obtaining each distinct logger
+     * once. As these events are already drained, any failure is reported and
+     * the next events are replayed anyway.
+     */
+    private void replay(final Iterator<PreBootstrapLoggingEvent> events) {
+        int count = 0;
+        Map<String, Log4j2Logger> loggers = new HashMap<String, Log4j2Logger>();
+        while (events.hasNext()) {
+            PreBootstrapLoggingEvent evt = events.next();
+            ++count;
+            try {
+                Log4j2Logger logger = loggers.get(evt.logName);
+                if (logger == null) {
+                    logger = getLogger(evt.logName);
+                    loggers.put(evt.logName, logger);
+                }
+                logger.log(evt.fqcn, evt.level, evt.msg, evt.thrown);
+            } catch (RuntimeException exc) {
+                report("ERROR: unexpected issue while flushing pre-bootstrap log events to Log4j 2", exc);
+            }
+        }
+        if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
+            report("Log4j2Support.replay() flushed " + count + " pre-bootstrap logging events");
+        }
+    }
+
+    /**
+     * Registers a {@linkplain Runtime#addShutdownHook shutdown hook} that
+     * bootstraps Log4j 2 if it has not been done yet when the JVM shuts down,
+     * so that pre-bootstrap events are not lost. When Log4j 2 is not available,
+     * they are reported to the standard error stream.
+     */
+    private static void runBootstrapAtShutdownIfNotYetDone() {
+        try {
+            getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    bootstrapLock.lock();
+                    try {
+                        if (backend != null) {
+                            return;
+                        }
+                        bootstrapStarted.set(true);
+                        if (!doBootstrap(currentThread().getContextClassLoader())) {
+                            for (Iterator<PreBootstrapLoggingEvent> it = PreBootstrapLoggingEvent.drainEvents(); it
+                                    .hasNext();) {
+                                report(it.next().toString());
+                            }
+                        }
+                    } finally {
+                        bootstrapLock.unlock();
+                    }
+                }
+            });
+        } catch (IllegalStateException ignore) {
+            // We are probably already being shutdown. Ignore this error.
+        }
+    }
+
+    /**
+     * @param name
+     *            the name of the logger to obtain
+     * @return the Log4j 2 logger with the given name
+     */
+    Log4j2Logger getLogger(final String name) {
+        try {
+            return new Log4j2Logger(this, (Object) getLogger.invokeExact(name));
+        } catch (Throwable exc) {
+            throw propagate(exc);
+        }
+    }
+
+    private static RuntimeException propagate(final Throwable exc) {
+        if (exc instanceof RuntimeException) {
+            return (RuntimeException) exc;
+        }
+        if (exc instanceof Error) {
+            throw (Error) exc;
+        }
+        return new RuntimeException(exc);
+    }
+
+    private Object toLog4jLevel(final int level) {
+        return levels[level <= TRACE_INT ? 0 : Math.min(level, FATAL_INT) / 10];
+    }
+
+    /**
+     * A Log4j 2 {@code ExtendedLogger}, along with the handles to use it.
+     */
+    static final class Log4j2Logger {
+        private final Log4j2Support support;
+        private final Object logger;
+
+        Log4j2Logger(final Log4j2Support support, final Object logger) {
+            super();
+            this.support = support;
+            this.logger = logger;
+        }
+
+        /**
+         * @param level
+         *            the level to test
+         * @return {@code true} if the underlying logger is enabled for the
+         *         given level, or {@code false} otherwise.
+         */
+        boolean isEnabled(final int level) {
+            try {
+                return (boolean) support.isEnabled.invokeExact(logger, support.toLog4jLevel(level));
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+
+        /**
+         * Logs an event with the underlying logger, unless its level is not
+         * enabled, in which case the message is not formatted at all.
+         *
+         * @param fqcn
+         *            the fully qualified class name of the logging facade,
+         *            for computing caller data
+         * @param level
+         *            the detail level of the event
+         * @param msg
+         *            the message to log
+         * @param thrown
+         *            any throwable to log along with the message
+         */
+        void log(final String fqcn, final int level, final Object msg, final Throwable thrown) {
+            try {
+                support.logIfEnabled.invokeExact(logger, fqcn, support.toLog4jLevel(level), msg, thrown);
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+    }
+}
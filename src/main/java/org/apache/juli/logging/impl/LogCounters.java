@@ -0,0 +1,254 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Thread.currentThread;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counts the logging events of {@link SLF4JDelegatingLog} facades, by logger
+ * name and level, splitting emitted events from filtered ones.
+ * <p>
+ * Counting is enabled with the {@value #COUNTERS_PROPERTY} system property
+ * set to {@code true}. When disabled, which is the default, the facades don't
+ * even look the counters up, and the JIT compiler removes the counting code.
+ * <p>
+ * Counters are built like {@code java.util.concurrent.atomic.LongAdder}, that
+ * is not available in Java 7. All the counters of a logger name are first
+ * incremented in a single base array. As soon as two threads contend on it,
+ * they are inflated to striped cells, where each thread increments the
+ * stripe that its identifier hashes to. Stripes are padded, so that threads
+ * that increment different stripes never share a cache line.
+ * <p>
+ * The counters are exposed as the {@value #OBJECT_NAME} MBean, that
+ * {@link SeparateLogbackSupport} registers at bootstrap time.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see LogCountersMBean
+ */
+final class LogCounters {
+
+    static final String COUNTERS_PROPERTY = "juli.counters";
+
+    static final String OBJECT_NAME = "org.apache.juli.logging:type=LogCounters";
+
+    /** Whether counting is enabled. */
+    static final boolean ENABLED = Boolean.getBoolean(COUNTERS_PROPERTY);
+
+    /** The number of levels, from {@code TRACE} to {@code ERROR}. */
+    private static final int LEVELS = 5;
+
+    /** The number of counters of a logger name, per stripe. */
+    private static final int COUNTERS = 2 * LEVELS;
+
+    /** The width of a stripe, that pads its counters to 128 bytes. */
+    private static final int STRIPE_WIDTH = 16;
+
+    /** The number of stripes, as a power of two. */
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    private static final ConcurrentMap<String, LogCounters> registry = new ConcurrentHashMap<String, LogCounters>();
+
+    private final String name;
+
+    /** The counters, until some contention is detected. */
+    private final AtomicLongArray base = new AtomicLongArray(COUNTERS);
+
+    /** The striped counters, once some contention has been detected. */
+    private final AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+    private LogCounters(final String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * @param name
+     *            the name of a logger
+     * @return the counters of the given logger name, shared by all facades
+     *         that have this name.
+     */
+    static LogCounters of(final String name) {
+        String key = String.valueOf(name);
+        LogCounters counters = registry.get(key);
+        if (counters == null) {
+            LogCounters created = new LogCounters(key);
+            counters = registry.putIfAbsent(key, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Counts an event that has been passed to the underlying logger.
+     *
+     * @param level
+     *            the level of the event
+     */
+    void emitted(final int level) {
+        increment((level - TRACE_INT) / (DEBUG_INT - TRACE_INT));
+    }
+
+    /**
+     * Counts an event that has been discarded because its level was not
+     * enabled, because of {@linkplain RateLimits rate limits}, or because it
+     * was {@linkplain DuplicateCollapser collapsed} as a repetition.
+     *
+     * @param level
+     *            the level of the event
+     */
+    void filtered(final int level) {
+        increment(LEVELS + (level - TRACE_INT) / (DEBUG_INT - TRACE_INT));
+    }
+
+    private void increment(final int counter) {
+        AtomicLongArray striped = cells.get();
+        if (striped == null) {
+            long value = base.get(counter);
+            if (base.compareAndSet(counter, value, value + 1)) {
+                return;
+            }
+            cells.compareAndSet(null, new AtomicLongArray(STRIPES * STRIPE_WIDTH));
+            striped = cells.get();
+        }
+        striped.getAndIncrement(stripe() * STRIPE_WIDTH + counter);
+    }
+
+    /**
+     * @return the stripe of the current thread, hashed from its identifier.
+     */
+    private static int stripe() {
+        long id = currentThread().getId();
+        int hash = (int) (id ^ id >>> 32) * 0x9E3779B9;
+        return (hash ^ hash >>> 16) & STRIPES - 1;
+    }
+
+    /**
+     * @param counter
+     *            the index of a counter
+     * @return the sum of the given counter across the base array and all
+     *         stripes. This is not an atomic snapshot, when events are being
+     *         concurrently counted.
+     */
+    private long sum(final int counter) {
+        long sum = base.get(counter);
+        AtomicLongArray striped = cells.get();
+        if (striped != null) {
+            for (int idx = counter; idx < striped.length(); idx += STRIPE_WIDTH) {
+                sum += striped.get(idx);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the emitted counts of the five levels, followed by the filtered
+     *         counts of the five levels.
+     */
+    long[] counts() {
+        long[] counts = new long[COUNTERS];
+        for (int counter = 0; counter < COUNTERS; ++counter) {
+            counts[counter] = sum(counter);
+        }
+        return counts;
+    }
+
+    private static long total(final long[] counts, final int from) {
+        long total = 0;
+        for (int counter = from; counter < from + LEVELS; ++counter) {
+            total += counts[counter];
+        }
+        return total;
+    }
+
+    /**
+     * Registers the {@value #OBJECT_NAME} MBean, unless counting is disabled.
+     */
+    static void registerMBean() {
+        if (ENABLED) {
+            SeparateLogbackSupport.registerMBean(OBJECT_NAME, new Management(), LogCountersMBean.class);
+        }
+    }
+
+    /** The MBean that exposes all the counters of the registry. */
+    static final class Management implements LogCountersMBean {
+
+        @Override
+        public int getLoggerCount() {
+            return registry.size();
+        }
+
+        @Override
+        public long getEmittedCount() {
+            long total = 0;
+            for (LogCounters counters : registry.values()) {
+                total += total(counters.counts(), 0);
+            }
+            return total;
+        }
+
+        @Override
+        public long getFilteredCount() {
+            long total = 0;
+            for (LogCounters counters : registry.values()) {
+                total += total(counters.counts(), LEVELS);
+            }
+            return total;
+        }
+
+        @Override
+        public long[] counts(final String loggerName) {
+            LogCounters counters = registry.get(loggerName);
+            return counters == null ? null : counters.counts();
+        }
+
+        @Override
+        public String[] topEmitters(final int count) {
+            List<Object[]> emitters = new ArrayList<Object[]>(registry.size());
+            for (LogCounters counters : registry.values()) {
+                long[] counts = counters.counts();
+                emitters.add(new Object[] { counters.name, total(counts, 0), total(counts, LEVELS) });
+            }
+            Collections.sort(emitters, new Comparator<Object[]>() {
+                @Override
+                public int compare(final Object[] left, final Object[] right) {
+                    return Long.compare((Long) right[1], (Long) left[1]);
+                }
+            });
+            int size = Math.max(0, Math.min(count, emitters.size()));
+            String[] top = new String[size];
+            for (int idx = 0; idx < size; ++idx) {
+                Object[] emitter = emitters.get(idx);
+                top[idx] = emitter[0] + ": emitted=" + emitter[1] + ", filtered=" + emitter[2];
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+/**
+ * The management interface of the {@link LogCounters}, that tells which
+ * loggers generate log volume.
+ * <p>
+ * Counts are given for {@code TRACE}, {@code DEBUG}, {@code INFO},
+ * {@code WARN} and {@code ERROR} levels, in this order. {@code FATAL} events
+ * are counted as {@code ERROR} ones. Emitted events are those that have been
+ * passed to the underlying logger, and filtered events are those that have
+ * been discarded because their level was not enabled, because of
+ * {@linkplain RateLimits rate limits}, or because they were
+ * {@linkplain DuplicateCollapser collapsed} as repetitions.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+public interface LogCountersMBean {
+
+    /**
+     * @return the number of distinct logger names that have been counted.
+     */
+    int getLoggerCount();
+
+    /**
+     * @return the total number of emitted events, for all loggers and levels.
+     */
+    long getEmittedCount();
+
+    /**
+     * @return the total number of filtered events, for all loggers and levels.
+     */
+    long getFilteredCount();
+
+    /**
+     * @param loggerName
+     *            the name of a logger
+     * @return the emitted counts of the five levels, followed by the filtered
+     *         counts of the five levels, or {@code null} when the logger has
+     *         not been counted.
+     */
+    long[] counts(String loggerName);
+
+    /**
+     * @param count
+     *            the maximum number of loggers to return
+     * @return the loggers that have emitted most events, with their emitted
+     *         and filtered counts, in decreasing order of emitted events.
+     */
+    String[] topEmitters(int count);
+}
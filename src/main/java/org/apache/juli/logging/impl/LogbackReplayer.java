@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.slf4j.Logger;
+
+/**
+ * Replays pre-bootstrap logging events to Logback appenders.
+ * <p>
+ * Logback is not supposed to be accessible with the class loader that has
+ * loaded this class. That's why this implementation uses introspection to
+ * create Logback logging events and send them to Logback appenders.
+ * <p>
+ * All reflective handles and Logback levels are resolved once, when creating
+ * the replayer, so that no reflective lookup is done per event. The handles
+ * are {@link MethodHandle}s, so that the {@link LoggerDelegate.LogbackDelegate}
+ * can also use this class to append events that have caller data.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapReplayer
+ */
+final class LogbackReplayer implements PreBootstrapReplayer {
+
+    static final String LOGBACK_CLASSIC_LOGGER_CLASS = "ch.qos.logback.classic.Logger";
+    static final String LOGBACK_CLASSIC_ILOGGING_EVENT_CLASS = "ch.qos.logback.classic.spi.ILoggingEvent";
+    static final String LOGBACK_CLASSIC_LOGGING_EVENT_CLASS = "ch.qos.logback.classic.spi.LoggingEvent";
+    static final String LOGBACK_CLASSIC_LEVEL_CLASS = "ch.qos.logback.classic.Level";
+
+    /** The names of Logback level constants, indexed by level divided by ten. */
+    private static final String[] LOGBACK_LEVEL_FIELDS = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR" };
+
+    /** The replayer that is shared by {@link LoggerDelegate.LogbackDelegate}s. */
+    private static volatile LogbackReplayer shared;
+
+    private final Class<?> loggerClass;
+
+    /** {@code new LoggingEvent(String, Logger, Level, String, Throwable, Object[])} */
+    private final MethodHandle newLoggingEvent;
+
+    /** {@code Logger.callAppenders(ILoggingEvent)} */
+    private final MethodHandle callAppenders;
+
+    /** {@code LoggingEvent.setTimeStamp(long)} */
+    private final MethodHandle setTimeStamp;
+
+    /** {@code LoggingEvent.setCallerData(StackTraceElement[])} */
+    private final MethodHandle setCallerData;
+
+    /** The Logback levels, indexed by level divided by ten. */
+    private final Object[] levels = new Object[LOGBACK_LEVEL_FIELDS.length];
+
+    /**
+     * Resolves all the reflective handles that are necessary to replay events.
+     *
+     * @param logbackLoader
+     *            the class loader to use in order to access Logback classes
+     * @throws ClassNotFoundException
+     *             when Logback cannot be loaded by the given class loader
+     * @throws ReflectiveOperationException
+     *             when Logback does not have the expected API
+     */
+    LogbackReplayer(final ClassLoader logbackLoader) throws ReflectiveOperationException {
+        super();
+        loggerClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LOGGER_CLASS);
+        Class<?> iLoggingEventClass = logbackLoader.loadClass(LOGBACK_CLASSIC_ILOGGING_EVENT_CLASS);
+        Class<?> loggingEventClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LOGGING_EVENT_CLASS);
+        Class<?> levelClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LEVEL_CLASS);
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        newLoggingEvent = lookup.unreflectConstructor(loggingEventClass.getConstructor(String.class, loggerClass,
+                levelClass, String.class, Throwable.class, Object[].class)).asType(MethodType.methodType(
+                Object.class, String.class, Object.class, Object.class, String.class, Throwable.class,
+                Object[].class));
+        callAppenders = lookup.unreflect(loggerClass.getMethod("callAppenders", iLoggingEventClass))
+                .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        setTimeStamp = lookup.unreflect(loggingEventClass.getMethod("setTimeStamp", long.class))
+                .asType(MethodType.methodType(void.class, Object.class, long.class));
+        setCallerData = lookup.unreflect(loggingEventClass.getMethod("setCallerData", StackTraceElement[].class))
+                .asType(MethodType.methodType(void.class, Object.class, StackTraceElement[].class));
+        for (int idx = 0; idx < LOGBACK_LEVEL_FIELDS.length; ++idx) {
+            levels[idx] = levelClass.getField(LOGBACK_LEVEL_FIELDS[idx]).get(null);
+        }
+    }
+
+    /**
+     * Returns the replayer for the given Logback logger class, creating it
+     * when necessary.
+     *
+     * @param logbackLoggerClass
+     *            the {@code ch.qos.logback.classic.Logger} class
+     * @return the shared replayer, or {@code null} when Logback does not have
+     *         the expected API.
+     */
+    static LogbackReplayer forLoggerClass(final Class<?> logbackLoggerClass) {
+        LogbackReplayer current = shared;
+        if (current != null && current.loggerClass == logbackLoggerClass) {
+            return current;
+        }
+        try {
+            current = new LogbackReplayer(logbackLoggerClass.getClassLoader());
+        } catch (ReflectiveOperationException | SecurityException exc) {
+            if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("LogbackReplayer.forLoggerClass(): not appending directly to Logback appenders", exc);
+            }
+            return null;
+        }
+        shared = current;
+        return current;
+    }
+
+    @Override
+    public boolean supports(final Logger logger) {
+        return loggerClass.isInstance(logger);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation directly calls the Logback appenders, bypassing any
+     * level or turbo filter, and keeps the original timestamp of the event.
+     */
+    @Override
+    public void replay(final Logger logger, final PreBootstrapLoggingEvent event) {
+        try {
+            Object loggingEvent = (Object) newLoggingEvent.invokeExact(event.fqcn, (Object) logger,
+                    toLogbackLevel(event.level), event.msg, event.thrown, (Object[]) null);
+            setTimeStamp.invokeExact(loggingEvent, event.timeStamp);
+            callAppenders.invokeExact((Object) logger, loggingEvent);
+        } catch (Error err) {
+            throw err;
+        } catch (Throwable exc) {
+            report("ERROR: unexpected issue while flushing pre-bootstrap log events to Logback appenders", exc);
+        }
+    }
+
+    /**
+     * Builds a Logback logging event with the given caller data, and directly
+     * sends it to the appenders of the given logger, bypassing any level or
+     * turbo filter. So the level must have been checked before.
+     *
+     * @param logger
+     *            a Logback logger
+     * @param fqcn
+     *            the fully qualified class name of the logging facade
+     * @param level
+     *            the detail level of the event
+     * @param msg
+     *            the message to log
+     * @param thrown
+     *            any throwable to log along with the message
+     * @param callerData
+     *            the caller data of the event
+     */
+    void append(final Logger logger, final String fqcn, final int level, final String msg, final Throwable thrown,
+            final StackTraceElement[] callerData) {
+        try {
+            Object loggingEvent = (Object) newLoggingEvent.invokeExact(fqcn, (Object) logger, toLogbackLevel(level),
+                    msg, thrown, (Object[]) null);
+            setCallerData.invokeExact(loggingEvent, callerData);
+            callAppenders.invokeExact((Object) logger, loggingEvent);
+        } catch (RuntimeException | Error exc) {
+            throw exc;
+        } catch (Throwable exc) {
+            throw new RuntimeException(exc);
+        }
+    }
+
+    /**
+     * Converts a log level from {@link org.slf4j.spi.LocationAwareLogger} into
+     * an instance of {@code ch.qos.logback.classic.Level}.
+     */
+    private Object toLogbackLevel(final int level) {
+        switch (level) {
+        case TRACE_INT:
+        case DEBUG_INT:
+        case INFO_INT:
+        case WARN_INT:
+            return levels[level / 10];
+        default:
+            return levels[ERROR_INT / 10];
+        }
+    }
+}
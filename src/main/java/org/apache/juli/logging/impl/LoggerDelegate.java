@@ -0,0 +1,305 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.String.valueOf;
+import static org.apache.juli.logging.impl.LogbackReplayer.LOGBACK_CLASSIC_LOGGER_CLASS;
+import static org.apache.juli.logging.impl.SLF4JDelegatingLog.FQCN;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.UNCACHEABLE_LEVELS;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.awaitJuliLogbackPropertiesRestored;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.bootstrapLock;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.bootstrapLoggingSystemIfPossible;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.callerDataNeeded;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.levelsGeneration;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import org.slf4j.Logger;
+import org.slf4j.spi.LocationAwareLogger;
+
+/**
+ * The strategy that a {@link SLF4JDelegatingLog} facade uses for actually
+ * logging events.
+ * <p>
+ * Each facade holds exactly one delegate, that is switched when the logging
+ * system is bootstrapped. Before bootstrap, the delegate is a
+ * {@link PreBootstrapDelegate} that synchronizes with the bootstrapping
+ * process. After bootstrap, it is a lock-free {@link LogbackDelegate},
+ * {@link LocationAwareDelegate} or {@link PlainDelegate}, depending on the
+ * underlying logger. So that once
+ * bootstrapped, a facade does not test any volatile flag nor any logger type
+ * anymore when logging events.
+ * <p>
+ * Levels are those defined by the {@link LocationAwareLogger} interface.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see SLF4JDelegatingLog
+ */
+abstract class LoggerDelegate {
+
+    /**
+     * Creates the delegate that is suitable for the given underlying logger.
+     *
+     * @param facade
+     *            the facade that will use the created delegate
+     * @param logger
+     *            the underlying logger
+     * @return a new delegate
+     */
+    static LoggerDelegate of(final SLF4JDelegatingLog facade, final Logger logger) {
+        if (logger instanceof PreBootstrapLogger) {
+            return new PreBootstrapDelegate(facade, (PreBootstrapLogger) logger);
+        } else if (CallerLocator.walksStackLazily()
+                && LOGBACK_CLASSIC_LOGGER_CLASS.equals(logger.getClass().getName())) {
+            LogbackReplayer appender = LogbackReplayer.forLoggerClass(logger.getClass());
+            if (appender != null) {
+                return new LogbackDelegate((LocationAwareLogger) logger, appender);
+            }
+            return new LocationAwareDelegate((LocationAwareLogger) logger);
+        } else if (logger instanceof LocationAwareLogger) {
+            return new LocationAwareDelegate((LocationAwareLogger) logger);
+        } else {
+            return new PlainDelegate(logger);
+        }
+    }
+
+    /**
+     * @return the underlying logger.
+     */
+    abstract Logger logger();
+
+    /**
+     * @param level
+     *            the level to test
+     * @return {@code true} if the underlying logger is enabled for the given
+     *         level, or {@code false} otherwise.
+     */
+    boolean isEnabled(final int level) {
+        Logger logger = logger();
+        switch (level) {
+        case TRACE_INT:
+            return logger.isTraceEnabled();
+        case DEBUG_INT:
+            return logger.isDebugEnabled();
+        case INFO_INT:
+            return logger.isInfoEnabled();
+        case WARN_INT:
+            return logger.isWarnEnabled();
+        default:
+            return logger.isErrorEnabled();
+        }
+    }
+
+    /**
+     * @return {@code true} if the result of {@link #isEnabled(int)} can be
+     *         cached, or {@code false} otherwise.
+     */
+    boolean isLevelCacheable() {
+        return true;
+    }
+
+    /**
+     * Logs an event with the underlying logger. The level is supposed to have
+     * been checked with {@link #isEnabled(int)} or a cached equivalent.
+     *
+     * @param level
+     *            the detail level of the event
+     * @param msg
+     *            the message to log, to be converted to {@link String}
+     * @param thrown
+     *            any throwable to log along with the message
+     */
+    abstract void log(int level, Object msg, Throwable thrown);
+
+    /**
+     * A delegate for underlying loggers that are not
+     * {@linkplain LocationAwareLogger location aware}.
+     */
+    static final class PlainDelegate extends LoggerDelegate {
+
+        private final Logger logger;
+
+        PlainDelegate(final Logger logger) {
+            super();
+            this.logger = logger;
+        }
+
+        @Override
+        Logger logger() {
+            return logger;
+        }
+
+        @Override
+        void log(final int level, final Object msg, final Throwable thrown) {
+            switch (level) {
+            case TRACE_INT:
+                logger.trace(valueOf(msg), thrown);
+                break;
+            case DEBUG_INT:
+                logger.debug(valueOf(msg), thrown);
+                break;
+            case INFO_INT:
+                logger.info(valueOf(msg), thrown);
+                break;
+            case WARN_INT:
+                logger.warn(valueOf(msg), thrown);
+                break;
+            default:
+                logger.error(valueOf(msg), thrown);
+                break;
+            }
+        }
+    }
+
+    /**
+     * A delegate for {@linkplain LocationAwareLogger location aware} underlying
+     * loggers, to which the {@link SLF4JDelegatingLog} class name is given, so
+     * that they properly compute caller data.
+     * <p>
+     * This is also the delegate for Logback loggers, unless caller data can be
+     * computed more cheaply than Logback does. Building Logback logging events
+     * and calling the logger appenders directly, as the {@link LogbackDelegate}
+     * does, bypasses the turbo filter chain and the level check. But without
+     * turbo filters, those are a few nanoseconds out of the cost of building
+     * the event and appending it, and the facade already skips disabled levels
+     * with its cached level. So such a direct path brings no measurable gain
+     * by itself.
+     */
+    static final class LocationAwareDelegate extends LoggerDelegate {
+
+        private final LocationAwareLogger logger;
+
+        LocationAwareDelegate(final LocationAwareLogger logger) {
+            super();
+            this.logger = logger;
+        }
+
+        @Override
+        Logger logger() {
+            return logger;
+        }
+
+        @Override
+        void log(final int level, final Object msg, final Throwable thrown) {
+            logger.log(null, FQCN, level, valueOf(msg), null, thrown);
+        }
+    }
+
+    /**
+     * A delegate for Logback loggers, that computes caller data with the
+     * {@link CallerLocator}, when it walks the stack more cheaply than Logback
+     * does, i.e. on Java 9 and later.
+     * <p>
+     * When the Logback configuration has some pattern that needs caller data,
+     * events are built with their caller data, and directly sent to the logger
+     * appenders, bypassing the turbo filter chain and the level check, that the
+     * facade has already done. This is only valid while levels are cached,
+     * i.e. while there is no turbo filter and levels changes are watched.
+     * Otherwise, events go through the generic {@link LocationAwareLogger#log}
+     * method, and Logback computes caller data lazily, only if some appender
+     * asks for it.
+     */
+    static final class LogbackDelegate extends LoggerDelegate {
+
+        private final LocationAwareLogger logger;
+        private final LogbackReplayer appender;
+
+        LogbackDelegate(final LocationAwareLogger logger, final LogbackReplayer appender) {
+            super();
+            this.logger = logger;
+            this.appender = appender;
+        }
+
+        @Override
+        Logger logger() {
+            return logger;
+        }
+
+        @Override
+        void log(final int level, final Object msg, final Throwable thrown) {
+            if (callerDataNeeded() && levelsGeneration() != UNCACHEABLE_LEVELS) {
+                appender.append(logger, FQCN, level, valueOf(msg), thrown, CallerLocator.locate());
+            } else {
+                logger.log(null, FQCN, level, valueOf(msg), null, thrown);
+            }
+        }
+    }
+
+    /**
+     * A delegate for {@link PreBootstrapLogger}s.
+     * <p>
+     * Logging events are stored without any lock. When pre-bootstrap events
+     * have started being flushed, they are not accepted anymore, though. The
+     * global {@linkplain SeparateLogbackSupport#bootstrapLock bootstrap lock}
+     * is then acquired, which waits for the end of the bootstrapping process.
+     * The event is finally forwarded to the new delegate of the facade.
+     * <p>
+     * So even facades that would see a stale pre-bootstrap delegate after the
+     * swap log their events with the new delegate, as published by the lock.
+     */
+    static final class PreBootstrapDelegate extends LoggerDelegate {
+
+        private final SLF4JDelegatingLog facade;
+        private final PreBootstrapLogger logger;
+
+        PreBootstrapDelegate(final SLF4JDelegatingLog facade, final PreBootstrapLogger logger) {
+            super();
+            this.facade = facade;
+            this.logger = logger;
+        }
+
+        @Override
+        Logger logger() {
+            return logger;
+        }
+
+        /**
+         * Pre-bootstrap levels are never cached, so that no cached level
+         * survives the swap of this delegate.
+         */
+        @Override
+        boolean isLevelCacheable() {
+            return false;
+        }
+
+        @Override
+        void log(final int level, final Object msg, final Throwable thrown) {
+            bootstrapLoggingSystemIfPossible();
+            awaitJuliLogbackPropertiesRestored();
+            if (logger.store(FQCN, level, valueOf(msg), thrown)) {
+                return;
+            }
+            bootstrapLock.lock();
+            try {
+                LoggerDelegate current = facade.delegate;
+                if (current != this) {
+                    if (current.isEnabled(level)) {
+                        current.log(level, msg, thrown);
+                    }
+                } else {
+                    report("ERROR: the logging system could not be bootstrapped. Discarding logging event: " + msg);
+                }
+            } finally {
+                bootstrapLock.unlock();
+            }
+        }
+    }
+}
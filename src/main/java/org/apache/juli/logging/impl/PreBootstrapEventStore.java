@@ -0,0 +1,533 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.juli.logging.impl.PreBootstrapLoggingEvent.OverflowPolicy;
+
+/**
+ * A compact, column-wise and lock-free storage for pre-bootstrap logging
+ * events.
+ * <p>
+ * Instead of one object per event, events are stored in chunks of
+ * {@value #CHUNK_SIZE} slots, where each column is an array: an atomic
+ * {@code int} array for the state and level of events, a {@code long} array
+ * for timestamps, and reference arrays for logger names, class names, messages
+ * and throwables. Logger names and class names are interned in a string table,
+ * so that each slot only references a shared instance.
+ * <p>
+ * Each event gets a global index, which is also its sequence number, with one
+ * atomic increment. Its columns are then written, and the event is finally
+ * committed by setting its state. The flush reads events in index order, so
+ * that no sorting is necessary.
+ * <p>
+ * The hand-off with the flush is race-free. When closing the store, the
+ * reservation counter is shifted by {@link #CLOSED_MARK}, so that later
+ * writers know they are too late. Each slot is then claimed by the flush with
+ * a compare-and-set on its state. A writer that loses this race on its own slot
+ * also knows that its event must be logged with the actual logging system.
+ * Dropping an event as per the {@link OverflowPolicy} also claims it with a
+ * compare-and-set, so that an event is either dropped or flushed, never both.
+ * <p>
+ * Chunks are only allocated under a small private lock, once every
+ * {@value #CHUNK_SIZE} events. Chunks whose events have all been dropped or
+ * flushed are released. The table of chunks only spans from the oldest chunk
+ * that is not released, so that it doesn't grow with all the events that have
+ * ever been stored.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapLoggingEvent
+ */
+final class PreBootstrapEventStore {
+
+    static final int CHUNK_BITS = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Added to the reservation counter when the store is closed. */
+    private static final long CLOSED_MARK = 1L << 62;
+
+    /** The state of a reserved slot, whose event is being written. */
+    private static final int EMPTY = 0;
+    /** The state of a slot that has been claimed by the flush. */
+    private static final int TAKEN = -1;
+    /** The state of a slot whose event has been dropped. */
+    private static final int DROPPED = -2;
+    /** Committed states are the level of the event plus this offset. */
+    private static final int COMMITTED = 1;
+
+    private static final int LEVELS_COUNT = ERROR_INT / 10 + 1;
+
+    /** Rough estimate of the memory that the columns of any slot occupy. */
+    private static final int SLOT_OVERHEAD_BYTES = 32;
+    /** Rough estimate of the memory that any throwable occupies. */
+    private static final int THROWABLE_OVERHEAD_BYTES = 1024;
+
+    /** The columns of {@value #CHUNK_SIZE} consecutive events. */
+    private static final class Chunk {
+        final long base;
+        final AtomicIntegerArray states;
+        final long[] timeStamps;
+        final String[] logNames;
+        final String[] fqcns;
+        final String[] msgs;
+        final Throwable[] throwns;
+        /** The number of slots that have been dropped or claimed. */
+        final AtomicInteger released = new AtomicInteger();
+
+        Chunk(final long base, final int size) {
+            super();
+            this.base = base;
+            states = new AtomicIntegerArray(size);
+            timeStamps = new long[size];
+            logNames = new String[size];
+            fqcns = new String[size];
+            msgs = new String[size];
+            throwns = new Throwable[size];
+        }
+    }
+
+    /** Replaces chunks whose slots have all been dropped or claimed. */
+    private static final Chunk RELEASED = new Chunk(-1, 0);
+
+    /**
+     * The chunks from the given chunk index on. Chunks before it are all
+     * released.
+     */
+    private static final class ChunkTable {
+        final long first;
+        final AtomicReferenceArray<Chunk> chunks;
+
+        ChunkTable(final long first, final int length) {
+            super();
+            this.first = first;
+            this.chunks = new AtomicReferenceArray<Chunk>(length);
+        }
+    }
+
+    private final int maxEvents;
+    private final long maxBytes;
+    private final OverflowPolicy overflowPolicy;
+
+    /** The next index to reserve, plus {@link #CLOSED_MARK} once closed. */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * The chunks, indexed by event index divided by {@value #CHUNK_SIZE}. The
+     * table is only replaced, and its chunks are only set, with the
+     * {@link #chunksLock} held.
+     */
+    private volatile ChunkTable chunks = new ChunkTable(0, 16);
+    private final ReentrantLock chunksLock = new ReentrantLock();
+
+    /** The interned logger names and class names. */
+    private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+
+    /** The number of stored events that count in the capacity. */
+    private final AtomicInteger storedEvents = new AtomicInteger();
+    /** The estimated size of stored events that count in the capacity. */
+    private final AtomicLong storedBytes = new AtomicLong();
+    /** The number of events that have been dropped. */
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    /** The number of committed events per level, for choosing victims. */
+    private final AtomicIntegerArray liveByLevel = new AtomicIntegerArray(LEVELS_COUNT);
+    /**
+     * The index below which no event can be dropped anymore, per level for the
+     * {@link OverflowPolicy#DROP_LOWEST_LEVEL_FIRST} policy, or at index zero
+     * for the other policies.
+     */
+    private final AtomicLongArray dropCursors = new AtomicLongArray(LEVELS_COUNT);
+
+    /**
+     * @param maxEvents
+     *            the maximum number of events, or zero for no limit
+     * @param maxBytes
+     *            the maximum estimated size of events, or zero for no limit
+     * @param overflowPolicy
+     *            the policy for dropping events when the capacity is exceeded
+     */
+    PreBootstrapEventStore(final int maxEvents, final long maxBytes, final OverflowPolicy overflowPolicy) {
+        super();
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Stores a new event, unless the store is closed. Older events might be
+     * dropped in order not to exceed the capacity.
+     * <p>
+     * This method is lock-free, except once every {@value #CHUNK_SIZE} events,
+     * and can be called concurrently.
+     *
+     * @return the index of the stored event, or {@code -1} if the store is
+     *         closed, in which case the event must be logged with the actual
+     *         logging system instead.
+     */
+    long add(final String logName, final String fqcn, final int level, final String msg, final Throwable thrown,
+            final long timeStamp) {
+        long idx = reserved.getAndIncrement();
+        if (idx >= CLOSED_MARK) {
+            return -1;
+        }
+        Chunk chunk = chunk(idx, true);
+        if (chunk == RELEASED) {
+            // The flush has claimed all the slots of our chunk, ours included
+            return -1;
+        }
+        int slot = (int) (idx & CHUNK_MASK);
+        chunk.timeStamps[slot] = timeStamp;
+        chunk.logNames[slot] = intern(logName);
+        chunk.fqcns[slot] = intern(fqcn);
+        chunk.msgs[slot] = msg;
+        chunk.throwns[slot] = thrown;
+        if (!chunk.states.compareAndSet(slot, EMPTY, level + COMMITTED)) {
+            // The flush has claimed our slot before we could commit the event
+            clearSlot(chunk, slot);
+            return -1;
+        }
+        liveByLevel.incrementAndGet(level / 10);
+        if (isCounted(level)) {
+            int events = storedEvents.incrementAndGet();
+            long bytes = storedBytes.addAndGet(estimatedSize(msg, thrown));
+            while (isOverCapacity(events, bytes) && reserved.get() < CLOSED_MARK && dropOne()) {
+                events = storedEvents.get();
+                bytes = storedBytes.get();
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * @return the number of events that have been dropped.
+     */
+    long droppedEvents() {
+        return droppedEvents.get();
+    }
+
+    int maxEvents() {
+        return maxEvents;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of chunks that the table of chunks can hold.
+     */
+    int chunkTableLength() {
+        return chunks.chunks.length();
+    }
+
+    /**
+     * @return {@code true} once the store has been closed.
+     */
+    boolean isClosed() {
+        return reserved.get() >= CLOSED_MARK;
+    }
+
+    /**
+     * Closes the store, so that no event is accepted anymore.
+     *
+     * @return an iterator that claims the stored events in index order, and
+     *         releases their memory as it goes.
+     */
+    Iterator<PreBootstrapLoggingEvent> close() {
+        long end = reserved.getAndAdd(CLOSED_MARK);
+        if (end >= CLOSED_MARK) {
+            throw new IllegalStateException("pre-bootstrap events have already been flushed");
+        }
+        return new Drain(end);
+    }
+
+    private String intern(final String str) {
+        if (str == null) {
+            return null;
+        }
+        String interned = strings.putIfAbsent(str, str);
+        return interned == null ? str : interned;
+    }
+
+    private boolean isCounted(final int level) {
+        return level != ERROR_INT || overflowPolicy != OverflowPolicy.KEEP_ERRORS_ALWAYS;
+    }
+
+    private boolean isOverCapacity(final int events, final long bytes) {
+        return (maxEvents > 0 && events > maxEvents) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    private static long estimatedSize(final String msg, final Throwable thrown) {
+        return SLOT_OVERHEAD_BYTES + (msg == null ? 0 : 2L * msg.length())
+                + (thrown == null ? 0 : THROWABLE_OVERHEAD_BYTES);
+    }
+
+    /**
+     * @param create
+     *            whether the chunk is to be allocated when missing
+     * @return the chunk of the given event index, {@link #RELEASED} when it
+     *         has been released, or {@code null} when it is not allocated.
+     */
+    private Chunk chunk(final long idx, final boolean create) {
+        long chunkIdx = idx >>> CHUNK_BITS;
+        Chunk chunk = chunkAt(chunks, chunkIdx);
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        chunksLock.lock();
+        try {
+            ChunkTable table = chunks;
+            chunk = chunkAt(table, chunkIdx);
+            if (chunk == null) {
+                if (chunkIdx - table.first >= table.chunks.length()) {
+                    table = compacted(table, chunkIdx);
+                }
+                chunk = new Chunk(chunkIdx << CHUNK_BITS, CHUNK_SIZE);
+                table.chunks.set((int) (chunkIdx - table.first), chunk);
+                // Volatile write, that publishes any new table
+                chunks = table;
+            }
+            return chunk;
+        } finally {
+            chunksLock.unlock();
+        }
+    }
+
+    private static Chunk chunkAt(final ChunkTable table, final long chunkIdx) {
+        long offset = chunkIdx - table.first;
+        if (offset < 0) {
+            return RELEASED;
+        }
+        return offset < table.chunks.length() ? table.chunks.get((int) offset) : null;
+    }
+
+    /**
+     * @return a new table that starts at the oldest chunk that is not
+     *         released, and that can hold the given chunk index. Must be
+     *         called with the {@link #chunksLock} held.
+     */
+    private static ChunkTable compacted(final ChunkTable table, final long chunkIdx) {
+        int length = table.chunks.length();
+        int start = 0;
+        while (start < length && table.chunks.get(start) == RELEASED) {
+            ++start;
+        }
+        long first = table.first + start;
+        int live = length - start;
+        ChunkTable grown = new ChunkTable(first, (int) Math.max(chunkIdx - first + 1, Math.max(16, 2L * live)));
+        for (int idx = 0; idx < live; ++idx) {
+            grown.chunks.set(idx, table.chunks.get(start + idx));
+        }
+        return grown;
+    }
+
+    /**
+     * Accounts for one dropped or claimed slot, and releases the chunk when
+     * all its slots are.
+     */
+    private void releaseSlot(final Chunk chunk) {
+        if (chunk.released.incrementAndGet() == CHUNK_SIZE) {
+            chunksLock.lock();
+            try {
+                ChunkTable table = chunks;
+                long offset = (chunk.base >>> CHUNK_BITS) - table.first;
+                if (offset >= 0 && table.chunks.get((int) offset) == chunk) {
+                    table.chunks.set((int) offset, RELEASED);
+                }
+            } finally {
+                chunksLock.unlock();
+            }
+        }
+    }
+
+    private static void clearSlot(final Chunk chunk, final int slot) {
+        chunk.logNames[slot] = null;
+        chunk.fqcns[slot] = null;
+        chunk.msgs[slot] = null;
+        chunk.throwns[slot] = null;
+    }
+
+    /**
+     * Drops one event, as per the configured {@link OverflowPolicy}.
+     *
+     * @return {@code true} if some event has been dropped, or {@code false}
+     *         when there was no event to drop.
+     */
+    private boolean dropOne() {
+        switch (overflowPolicy) {
+        case DROP_LOWEST_LEVEL_FIRST:
+            for (int level = TRACE_INT; level <= ERROR_INT; level += 10) {
+                if (liveByLevel.get(level / 10) > 0 && dropOldest(level / 10, level, level)) {
+                    return true;
+                }
+            }
+            return false;
+        case KEEP_ERRORS_ALWAYS:
+            return dropOldest(0, TRACE_INT, ERROR_INT - 10);
+        default:
+            return dropOldest(0, TRACE_INT, ERROR_INT);
+        }
+    }
+
+    /**
+     * Drops the oldest committed event whose level is in the given range.
+     *
+     * @param cursorIdx
+     *            the index of the drop cursor to scan from
+     */
+    private boolean dropOldest(final int cursorIdx, final int minLevel, final int maxLevel) {
+        long end = reserved.get();
+        if (end >= CLOSED_MARK) {
+            return false;
+        }
+        long idx = dropCursors.get(cursorIdx);
+        boolean contiguous = true;
+        while (idx < end) {
+            Chunk chunk = chunk(idx, false);
+            if (chunk == RELEASED) {
+                idx = (idx | CHUNK_MASK) + 1;
+                continue;
+            }
+            if (chunk == null) {
+                // Its writer is still allocating it, so none of its events is
+                // committed yet
+                contiguous = false;
+                idx = (idx | CHUNK_MASK) + 1;
+                continue;
+            }
+            int slot = (int) (idx & CHUNK_MASK);
+            int state = chunk.states.get(slot);
+            int level = state - COMMITTED;
+            if (state >= COMMITTED && level >= minLevel && level <= maxLevel
+                    && chunk.states.compareAndSet(slot, state, DROPPED)) {
+                long bytes = estimatedSize(chunk.msgs[slot], chunk.throwns[slot]);
+                clearSlot(chunk, slot);
+                liveByLevel.decrementAndGet(level / 10);
+                storedEvents.decrementAndGet();
+                storedBytes.addAndGet(-bytes);
+                droppedEvents.incrementAndGet();
+                advanceCursor(cursorIdx, contiguous ? idx + 1 : idx);
+                releaseSlot(chunk);
+                return true;
+            }
+            if (state == EMPTY) {
+                // Still being written, so it might be a candidate later on
+                contiguous = false;
+            } else if (contiguous) {
+                advanceCursor(cursorIdx, idx + 1);
+            }
+            ++idx;
+        }
+        return false;
+    }
+
+    private void advanceCursor(final int cursorIdx, final long idx) {
+        for (long current = dropCursors.get(cursorIdx); current < idx; current = dropCursors.get(cursorIdx)) {
+            if (dropCursors.compareAndSet(cursorIdx, current, idx)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claims the events of a closed store, in index order.
+     */
+    private final class Drain implements Iterator<PreBootstrapLoggingEvent> {
+
+        private final long end;
+        private long idx = 0;
+        private PreBootstrapLoggingEvent next;
+
+        Drain(final long end) {
+            super();
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && idx < end) {
+                Chunk chunk = chunk(idx, false);
+                if (chunk == RELEASED) {
+                    idx = (idx | CHUNK_MASK) + 1;
+                } else {
+                    // A missing chunk has not been allocated yet by its writer,
+                    // whose commit will then fail.
+                    next = claim(chunk == null ? chunk(idx, true) : chunk, idx++);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public PreBootstrapLoggingEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            PreBootstrapLoggingEvent evt = next;
+            next = null;
+            return evt;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return the event at the given index, or {@code null} when it has
+         *         been dropped, or when it had not been committed yet.
+         */
+        private PreBootstrapLoggingEvent claim(final Chunk chunk, final long index) {
+            int slot = (int) (index & CHUNK_MASK);
+            for (;;) {
+                int state = chunk.states.get(slot);
+                if (state == DROPPED || state == TAKEN) {
+                    return null;
+                }
+                if (chunk.states.compareAndSet(slot, state, TAKEN)) {
+                    PreBootstrapLoggingEvent evt = null;
+                    if (state != EMPTY) {
+                        evt = new PreBootstrapLoggingEvent(index, chunk.logNames[slot], chunk.fqcns[slot],
+                                state - COMMITTED, chunk.msgs[slot], chunk.throwns[slot], chunk.timeStamps[slot]);
+                        clearSlot(chunk, slot);
+                    }
+                    releaseSlot(chunk);
+                    return evt;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Integer.getInteger;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An optional journal of pre-bootstrap logging events, written to a
+ * memory-mapped file, so that they survive a crash of the JVM that would occur
+ * before the logging system is bootstrapped.
+ * <p>
+ * The journal is enabled with the {@value #JOURNAL_PROPERTY} system property.
+ * It is written to the {@value #JOURNAL_FILE_NAME} file in the
+ * {@code $CATALINA_BASE/temp} directory, and its size is set by the
+ * {@value #JOURNAL_SIZE_PROPERTY} system property, which defaults to
+ * {@value #DEFAULT_JOURNAL_SIZE} bytes. Events that do not fit in the journal
+ * anymore are not journaled, but are still kept in memory.
+ * <p>
+ * Appending events is lock-free. Space for each record is reserved with an
+ * atomic increment of the write position. The record length is written first,
+ * and a checksum of the record is written last, as a commit marker. When
+ * reading the journal back, records with a wrong checksum have been partially
+ * written, and they are skipped. Records are aligned on
+ * {@value #RECORD_ALIGNMENT} bytes, so that the records that follow a reserved
+ * space whose length has not even been written are found again by scanning
+ * the aligned positions, up to the end of the file.
+ * <p>
+ * When the journal is opened and the file is left over from a previous run
+ * that has not been properly bootstrapped, its events are recovered and
+ * replayed by {@link PreBootstrapLoggingEvent#flushEvents(ClassLoader)} before
+ * those of the current run. After the flush, the journal is marked as closed.
+ * <p>
+ * After a crash, the journal can also be dumped as text with the
+ * {@link #main(String[])} method of this class.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapLoggingEvent
+ */
+public final class PreBootstrapJournal {
+
+    static final String JOURNAL_PROPERTY = "juli.preBootstrap.journal";
+    static final String JOURNAL_SIZE_PROPERTY = "juli.preBootstrap.journalSize";
+    static final String JOURNAL_FILE_NAME = "juli-pre-bootstrap.journal";
+    static final int DEFAULT_JOURNAL_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4A554C49; // "JULI"
+    private static final int VERSION = 2;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_CLOSED = 2;
+    /** Magic number, version and state, padded to the record alignment. */
+    private static final int HEADER_SIZE = 16;
+    private static final int STATE_OFFSET = 8;
+    /** Length, checksum, sequence number, timestamp and level. */
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 1;
+    /** The offset of the checked part of records. */
+    private static final int RECORD_CHECKED_OFFSET = 8;
+    private static final int RECORD_ALIGNMENT = 8;
+    private static final int NULL_STRING = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger position = new AtomicInteger(HEADER_SIZE);
+    private final AtomicLong unjournaled = new AtomicLong();
+    private final List<Record> recovered;
+
+    private PreBootstrapJournal(final File file, final RandomAccessFile raf, final MappedByteBuffer buffer,
+            final List<Record> recovered) {
+        super();
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.recovered = recovered;
+    }
+
+    /**
+     * Opens the journal when enabled by the {@value #JOURNAL_PROPERTY} system
+     * property, recovering the records of any journal that was left over by a
+     * previous run.
+     *
+     * @return the opened journal, or {@code null} when disabled or when the
+     *         journal file could not be opened.
+     */
+    static PreBootstrapJournal openIfEnabled() {
+        if (!Boolean.getBoolean(JOURNAL_PROPERTY)) {
+            return null;
+        }
+        return open(defaultJournalFile(), getInteger(JOURNAL_SIZE_PROPERTY, DEFAULT_JOURNAL_SIZE));
+    }
+
+    /**
+     * Opens the given journal file, recovering the records that it has kept
+     * from a previous run, if it was not properly closed.
+     *
+     * @return the opened journal, or {@code null} when the journal file could
+     *         not be opened.
+     */
+    static PreBootstrapJournal open(final File file, final int requestedSize) {
+        int size = Math.max(requestedSize, HEADER_SIZE + 1024);
+        RandomAccessFile raf = null;
+        try {
+            file.getParentFile().mkdirs();
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            List<Record> recovered = readRecords(channel, true);
+            if (!recovered.isEmpty()) {
+                report("WARN: recovered " + recovered.size() + " pre-bootstrap logging events from the journal ["
+                        + file + "] of a previous run");
+            }
+
+            // Zero-fill the file, so that no stale record survives
+            channel.truncate(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(STATE_OFFSET, STATE_OPEN);
+            if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("PreBootstrapJournal opened [" + file + "] with " + size + " bytes");
+            }
+            return new PreBootstrapJournal(file, raf, buffer, recovered);
+        } catch (IOException | RuntimeException exc) {
+            report("WARN: could not open the pre-bootstrap journal [" + file + "]. Not journaling events.", exc);
+            closeQuietly(raf);
+            return null;
+        }
+    }
+
+    /**
+     * @return the journal file in the {@code $CATALINA_BASE/temp} directory,
+     *         or the default temporary directory when {@code catalina.base} is
+     *         not set.
+     */
+    static File defaultJournalFile() {
+        String catalinaBase = System.getProperty("catalina.base");
+        File tempDir = catalinaBase == null ? new File(System.getProperty("java.io.tmpdir"))
+                : new File(catalinaBase, "temp");
+        return new File(tempDir, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Appends an event to the journal. This method is lock-free and can be
+     * called concurrently.
+     */
+    void append(final long seq, final long timeStamp, final int level, final String logName, final String fqcn,
+            final String msg, final Throwable thrown) {
+        byte[] logNameBytes = encode(logName);
+        byte[] fqcnBytes = encode(fqcn);
+        byte[] msgBytes = encode(msg);
+        byte[] thrownBytes = thrown == null ? null : encode(stackTraceOf(thrown));
+        int length = aligned(RECORD_HEADER_SIZE + sizeOf(logNameBytes) + sizeOf(fqcnBytes) + sizeOf(msgBytes)
+                + sizeOf(thrownBytes));
+
+        int start = position.get() + length > buffer.capacity() ? -1 : position.getAndAdd(length);
+        if (start < 0 || start + length > buffer.capacity()) {
+            unjournaled.incrementAndGet();
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.position(RECORD_CHECKED_OFFSET);
+        record.putLong(seq);
+        record.putLong(timeStamp);
+        record.put((byte) level);
+        putString(record, logNameBytes);
+        putString(record, fqcnBytes);
+        putString(record, msgBytes);
+        putString(record, thrownBytes);
+
+        // Written first, so that readers can skip this record until committed
+        buffer.putInt(start, length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(start + RECORD_CHECKED_OFFSET);
+        target.put(record.array(), RECORD_CHECKED_OFFSET, length - RECORD_CHECKED_OFFSET);
+        // Written last, as the commit marker of the record
+        buffer.putInt(start + 4, checksum(record.array(), RECORD_CHECKED_OFFSET, length - RECORD_CHECKED_OFFSET));
+    }
+
+    /**
+     * @return the records recovered from the journal of a previous run,
+     *         sorted by sequence number.
+     */
+    List<Record> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Marks the journal as closed, so that its events are not recovered
+     * anymore, and releases the journal file.
+     */
+    void close() {
+        buffer.putInt(STATE_OFFSET, STATE_CLOSED);
+        buffer.force();
+        long count = unjournaled.get();
+        if (count > 0) {
+            report("WARN: " + count + " pre-bootstrap logging events did not fit in the journal [" + file + "]");
+        }
+        closeQuietly(raf);
+        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            report("PreBootstrapJournal closed [" + file + "]");
+        }
+    }
+
+    /**
+     * Reads the records of a journal.
+     *
+     * @param channel
+     *            the channel to read the journal from
+     * @param onlyIfOpen
+     *            whether the records of a properly closed journal should be
+     *            ignored
+     * @return the journal records, sorted by sequence number
+     */
+    private static List<Record> readRecords(final FileChannel channel, final boolean onlyIfOpen) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            return Collections.emptyList();
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) >= 0) {
+            // Keep reading
+        }
+        buf.flip();
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+                || (onlyIfOpen && buf.getInt(STATE_OFFSET) != STATE_OPEN)) {
+            return Collections.emptyList();
+        }
+
+        List<Record> records = new ArrayList<Record>();
+        int pos = HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= buf.limit()) {
+            int length = buf.getInt(pos);
+            if (length < RECORD_HEADER_SIZE || length % RECORD_ALIGNMENT != 0 || pos + length > buf.limit()) {
+                // Either the zero-filled end, or some reserved space that has
+                // not been written at all, after which records may follow
+                pos += RECORD_ALIGNMENT;
+                continue;
+            }
+            if (!isCommitted(buf, pos, length)) {
+                // Partially written, but its length is right
+                pos += length;
+                continue;
+            }
+            buf.position(pos + RECORD_CHECKED_OFFSET);
+            try {
+                Record rec = new Record();
+                rec.seq = buf.getLong();
+                rec.timeStamp = buf.getLong();
+                rec.level = buf.get();
+                rec.logName = getString(buf);
+                rec.fqcn = getString(buf);
+                rec.msg = getString(buf);
+                rec.thrown = getString(buf);
+                records.add(rec);
+            } catch (BufferUnderflowException | IllegalArgumentException exc) {
+                // Corrupted despite its checksum, so skip it
+            }
+            pos += length;
+        }
+        Collections.sort(records);
+        return records;
+    }
+
+    private static boolean isCommitted(final ByteBuffer buf, final int pos, final int length) {
+        return buf.getInt(pos + 4) == checksum(buf.array(), buf.arrayOffset() + pos + RECORD_CHECKED_OFFSET,
+                length - RECORD_CHECKED_OFFSET);
+    }
+
+    private static int checksum(final byte[] bytes, final int offset, final int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int aligned(final int length) {
+        return (length + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+    }
+
+    private static byte[] encode(final String str) {
+        return str == null ? null : str.getBytes(UTF_8);
+    }
+
+    private static int sizeOf(final byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(final ByteBuffer buf, final byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(NULL_STRING);
+        } else {
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    private static String getString(final ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("corrupted string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String stackTraceOf(final Throwable thrown) {
+        StringWriter writer = new StringWriter();
+        thrown.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    private static void closeQuietly(final RandomAccessFile raf) {
+        if (raf == null) {
+            return;
+        }
+        try {
+            raf.close();
+        } catch (IOException exc) {
+            report("WARN: could not close the pre-bootstrap journal", exc);
+        }
+    }
+
+    /**
+     * A journaled pre-bootstrap logging event, where any throwable is only
+     * available as a stack trace.
+     */
+    static final class Record implements Comparable<Record> {
+        long seq;
+        long timeStamp;
+        int level;
+        String logName;
+        String fqcn;
+        String msg;
+        String thrown;
+
+        @Override
+        public int compareTo(final Record other) {
+            return seq < other.seq ? -1 : seq == other.seq ? 0 : 1;
+        }
+
+        /**
+         * @return the message, followed by the stack trace of any throwable.
+         */
+        String fullMessage() {
+            return thrown == null ? msg : msg + '\n' + thrown;
+        }
+    }
+
+    private static String levelName(final int level) {
+        switch (level) {
+        case TRACE_INT:
+            return "TRACE";
+        case DEBUG_INT:
+            return "DEBUG";
+        case INFO_INT:
+            return "INFO";
+        case WARN_INT:
+            return "WARN";
+        case ERROR_INT:
+            return "ERROR";
+        default:
+            return String.valueOf(level);
+        }
+    }
+
+    /**
+     * Dumps the pre-bootstrap logging events of a journal as text on the
+     * standard output, typically after a crash. This offline tool reads the
+     * journal whether it is closed or not.
+     * <p>
+     * Usage: {@code java -cp juli-to-slf4j.jar
+     * org.apache.juli.logging.impl.PreBootstrapJournal [journal-file]}
+     *
+     * @param args
+     *            the path to the journal file, which defaults to the
+     *            {@value #JOURNAL_FILE_NAME} file in the
+     *            {@code $CATALINA_BASE/temp} directory, as set by the
+     *            {@code catalina.base} system property
+     * @throws IOException
+     *             when the journal cannot be read
+     */
+    public static void main(final String[] args) throws IOException {
+        File file = args.length > 0 ? new File(args[0]) : defaultJournalFile();
+        List<Record> records;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            records = readRecords(in.getChannel(), false);
+        }
+        PrintStream out = System.out;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        for (Record rec : records) {
+            out.println(format.format(new Date(rec.timeStamp)) + " " + levelName(rec.level) + " [" + rec.logName
+                    + "] " + rec.fullMessage());
+        }
+        out.println(records.size() + " pre-bootstrap logging events in [" + file + "]");
+    }
+}
@@ -46,22 +46,28 @@ import org.slf4j.spi.LocationAwareLogger;
  * loggers activation. We make no assumption on activated log levels, so this
  * implementation acts as if all log levels where enabled.
  * <p>
+ * Since version 1.2.0, levels below a {@linkplain ProvisionalThreshold
+ * provisional threshold} are disabled though, so that events that Logback is
+ * going to discard are not stored in the meantime.
+ * <p>
  * At class level, all created instances are registered in a collection, so that
  * they can be swapped in their respective {@link SLF4JDelegatingLog} by an
  * actual {@linkplain Logger SLF4J logger}. When the Logback bootstrapping has
  * started, a call to {@link #swapLoggers()} runs this swapping process.
  * <p>
- * This class <strong>does <em>not</em> implement thread safety</strong>. It's
- * the responsibility of client code to properly synchronize calls to these
- * three methods, using a single lock:
+ * This class <strong>does <em>not</em> fully implement thread
+ * safety</strong>. It's the responsibility of client code to properly
+ * synchronize calls to these two methods, using a single lock:
  * <ul>
  * <li>{@link #PreBootstrapLogger(SLF4JDelegatingLog, String)} (constructor)</li>
- * <li>{@link #log(Marker, String, int, String, Object[], Throwable)} (instance
- * method)
  * <li>{@link #swapLoggers()} (class method)</li>
  * </ul>
  * Typically, facade loggers {@link SLF4JDelegatingLog} do (globally)
- * synchronize access to the three methods above.
+ * synchronize access to the two methods above.
+ * <p>
+ * Since version 1.2.0, the {@link #store(String, int, String, Throwable)} and
+ * {@link #log(Marker, String, int, String, Object[], Throwable)} instance
+ * methods are lock-free and can be called concurrently.
  * <p>
  * Diagnostics can be activated by lowering the
  * {@link SLF4JDelegatingLog#diagnostics} level.
@@ -78,6 +84,11 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
     private static final String UNIMPLEMENTED_ERR = "This method is not implemented and should not be used."
             + " Only the log() method should be used.";
 
+    /**
+     * The provisional level threshold, below which events are discarded.
+     */
+    private static final int threshold = ProvisionalThreshold.resolve();
+
     private static Collection<PreBootstrapLogger> registry = new LinkedList<PreBootstrapLogger>();
 
     /**
@@ -88,11 +99,15 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
         if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
             report("PreBootstrapLogger.swapLoggers()");
         }
+        Object event = FlightRecorderEvents.beginLoggerSwap();
+        int count = 0;
         for (Iterator<PreBootstrapLogger> itr = registry.iterator(); itr.hasNext();) {
             PreBootstrapLogger logger = itr.next();
             logger.facade.setLogger(obtainLogger(logger.name));
             itr.remove();
+            ++count;
         }
+        FlightRecorderEvents.endLoggerSwap(event, count);
     }
 
     /** The facade for this underlying logger. */
@@ -113,20 +128,45 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
         registry.add(this);
     }
 
+    /**
+     * Stores a pre-bootstrap logging event, unless pre-bootstrap events are
+     * being flushed. Events below the provisional threshold are discarded.
+     *
+     * @param fqcn
+     *            the fully qualified class name of the original logger
+     * @param level
+     *            the detail level for this logging event
+     * @param msg
+     *            the message to log
+     * @param t
+     *            any throwable to log along with the message
+     * @return {@code true} if the event has been stored or discarded, or
+     *         {@code false} if it must be logged with the actual logging system
+     *         instead.
+     * @see PreBootstrapLoggingEvent#add(String, String, int, String, Throwable)
+     */
+    boolean store(final String fqcn, final int level, final String msg, final Throwable t) {
+        if (level < threshold) {
+            return true;
+        }
+        return add(name, fqcn, level, msg, t);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
-     * This implementations just stores a pre-bootstrap logging event.
+     * This implementations just stores a pre-bootstrap logging event. The
+     * event is discarded if pre-bootstrap events are being flushed.
      */
     @Override
     public void log(final Marker marker, final String fqcn, final int level, final String msg, final Object[] args,
             final Throwable t) {
-        add(name, fqcn, level, msg, t);
+        store(fqcn, level, msg, t);
     }
 
     @Override
     public boolean isTraceEnabled() {
-        return true;
+        return TRACE_INT >= threshold;
     }
 
     @Override
@@ -156,7 +196,7 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
 
     @Override
     public boolean isDebugEnabled() {
-        return true;
+        return DEBUG_INT >= threshold;
     }
 
     @Override
@@ -186,7 +226,7 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
 
     @Override
     public boolean isInfoEnabled() {
-        return true;
+        return INFO_INT >= threshold;
     }
 
     @Override
@@ -216,7 +256,7 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
 
     @Override
     public boolean isWarnEnabled() {
-        return true;
+        return WARN_INT >= threshold;
     }
 
     @Override
@@ -246,7 +286,7 @@ public class PreBootstrapLogger extends MarkerIgnoringBase implements LocationAw
 
     @Override
     public boolean isErrorEnabled() {
-        return true;
+        return ERROR_INT >= threshold;
     }
 
     @Override
@@ -16,51 +16,67 @@
  */
 package org.apache.juli.logging.impl;
 
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.getLong;
 import static java.lang.System.currentTimeMillis;
 import static org.apache.juli.logging.impl.SeparateLogbackSupport.obtainLogger;
 import static org.slf4j.helpers.Util.report;
 import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
-import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
-import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
 import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
 import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 import org.slf4j.Logger;
-import org.slf4j.spi.LocationAwareLogger;
 
 /**
  * Helper class for {@link PreBootstrapLogger} that stores timestamped logging
- * events, and later flushes them to Logback appenders.
+ * events, and later flushes them to the actual logging system.
  * <p>
  * At instance level, we implement here an immutable holder for a logging event
  * that might occur at pre-bootstrap time, i.e. before the actual logging system
  * is initialized.
  * <p>
- * At class level, all created instances are stored in a FIFO queue, so that
- * they can be flushed to Logback appenders once the logging system is
- * bootstrapped.
+ * At class level, all events are stored, so that they can be flushed to the
+ * actual logging system once it is bootstrapped. Since version 1.2.0, they are
+ * stored column-wise in a compact {@link PreBootstrapEventStore}, and holder
+ * instances are only created at flush time. Each event is given a sequence
+ * number, so that the global ordering of events is kept at flush time,
+ * whatever the order in which concurrent threads have actually stored them.
  * <p>
- * This class <strong>does <em>not</em> implement thread safety</strong>. It's
- * the responsibility of client code to properly synchronize calls to these two
- * methods, using a single lock:
- * <ul>
- * <li>{@link #add(String, String, int, String, Throwable)}</li>
- * <li>{@link #flushEvents(ClassLoader)}</li>
- * </ul>
- * Typically, facade loggers {@link SLF4JDelegatingLog} do (globally)
- * synchronize access to {@link PreBootstrapLogger}, which implies synchronized
- * access to this class. See the documentation of these classes for more
- * details.
+ * Since version 1.2.0, {@link #add(String, String, int, String, Throwable)}
+ * can be called concurrently without any lock. The hand-off with
+ * {@link #flushEvents(ClassLoader)} is race-free: once the flush has started,
+ * the store is closed and any event that the flush could not claim is rejected
+ * by {@code add()}, that returns {@code false}. The caller is then responsible
+ * for logging the event with the actual logging system, once bootstrapped.
+ * <p>
+ * Calls to {@link #flushEvents(ClassLoader)} must still be done while holding
+ * the global {@linkplain SeparateLogbackSupport#bootstrapLock bootstrap lock}.
+ * <p>
+ * Since version 1.2.0, the number of stored events is bounded, so that a
+ * delayed bootstrap cannot exhaust the memory. The capacity is set by the
+ * {@value #MAX_EVENTS_PROPERTY} system property, which defaults to
+ * {@value #DEFAULT_MAX_EVENTS} events, and by the {@value #MAX_BYTES_PROPERTY}
+ * system property, which defaults to {@value #DEFAULT_MAX_BYTES} bytes, as
+ * roughly estimated from the events messages. A zero or negative value means
+ * no limit. When the capacity is exceeded, events are dropped according to the
+ * {@link OverflowPolicy} that is set by the {@value #OVERFLOW_POLICY_PROPERTY}
+ * system property. The number of dropped events is reported at flush time.
+ * <p>
+ * Since version 1.2.0, events can also be written to a
+ * {@linkplain PreBootstrapJournal journal}, so that they are not lost when the
+ * JVM crashes before bootstrap.
  * <p>
  * Diagnostics can be activated by lowering the
  * {@link SLF4JDelegatingLog#diagnostics} level.
@@ -72,23 +88,63 @@ import org.slf4j.spi.LocationAwareLogger;
  */
 public class PreBootstrapLoggingEvent {
 
-    private static final String LOGBACK_CLASSIC_LOGGER_CLASS = "ch.qos.logback.classic.Logger";
-    private static final String LOGBACK_CLASSIC_ILOGGING_EVENT_CLASS = "ch.qos.logback.classic.spi.ILoggingEvent";
-    private static final String LOGBACK_CLASSIC_LOGGING_EVENT_CLASS = "ch.qos.logback.classic.spi.LoggingEvent";
-    private static final String LOGBACK_CLASSIC_LEVEL_CLASS = "ch.qos.logback.classic.Level";
-    private static final String LOGBACK_LEVEL_ERROR_FIELD = "ERROR";
-    private static final String LOGBACK_LEVEL_WARN_FIELD = "WARN";
-    private static final String LOGBACK_LEVEL_INFO_FIELD = "INFO";
-    private static final String LOGBACK_LEVEL_DEBUG_FIELD = "DEBUG";
-    private static final String LOGBACK_LEVEL_TRACE_FIELD = "TRACE";
+    static final String MAX_EVENTS_PROPERTY = "juli.preBootstrap.maxEvents";
+    static final String MAX_BYTES_PROPERTY = "juli.preBootstrap.maxBytes";
+    static final String OVERFLOW_POLICY_PROPERTY = "juli.preBootstrap.overflowPolicy";
+    static final int DEFAULT_MAX_EVENTS = 10000;
+    static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * The policies for dropping pre-bootstrap events when the capacity is
+     * exceeded.
+     */
+    public enum OverflowPolicy {
+        /** Drop the oldest event, whatever its level. */
+        DROP_OLDEST,
+        /**
+         * Drop the oldest event among those of the lowest level. Errors are
+         * only dropped when there is nothing else to drop.
+         */
+        DROP_LOWEST_LEVEL_FIRST,
+        /**
+         * Drop the oldest event that is not an error. Errors never count in
+         * the capacity and are never dropped.
+         */
+        KEEP_ERRORS_ALWAYS;
+
+        /**
+         * Parses a policy name, accepting both {@code DROP_OLDEST} and
+         * {@code drop-oldest} forms.
+         */
+        static OverflowPolicy parse(final String name, final OverflowPolicy defaultPolicy) {
+            if (name == null) {
+                return defaultPolicy;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+            } catch (IllegalArgumentException exc) {
+                report("WARN: unknown pre-bootstrap overflow policy [" + name + "]. Using " + defaultPolicy
+                        + " instead.");
+                return defaultPolicy;
+            }
+        }
+    }
+
+    /** The storage of pre-bootstrap events. */
+    private static final PreBootstrapEventStore store = new PreBootstrapEventStore(
+            getInteger(MAX_EVENTS_PROPERTY, DEFAULT_MAX_EVENTS), getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES),
+            OverflowPolicy.parse(System.getProperty(OVERFLOW_POLICY_PROPERTY),
+                    OverflowPolicy.DROP_LOWEST_LEVEL_FIRST));
 
-    private static List<PreBootstrapLoggingEvent> events = new LinkedList<PreBootstrapLoggingEvent>();
+    /** The optional journal of events, or {@code null} when disabled. */
+    private static final PreBootstrapJournal journal = PreBootstrapJournal.openIfEnabled();
 
     /**
-     * Stores a new pre-bootstrap logging event.
+     * Stores a new pre-bootstrap logging event, unless pre-bootstrap events
+     * have started being flushed. Older events might be dropped in order not
+     * to exceed the capacity.
      * <p>
-     * This method has a package-restricted visibility in order to prevent any
-     * unsynchronized access.
+     * This method is lock-free and can be called concurrently.
      *
      * @param logName
      *            the logger name
@@ -100,169 +156,305 @@ public class PreBootstrapLoggingEvent {
      *            the message to log
      * @param thrown
      *            any throwable to log along with the message
+     * @return {@code true} if the event has been stored, or {@code false} if
+     *         the pre-bootstrap events are being flushed, in which case the
+     *         event must be logged with the actual logging system instead.
      */
-    static void add(final String logName, final String fqcn, final int level, final String msg, final Throwable thrown) {
-        PreBootstrapLoggingEvent evt = new PreBootstrapLoggingEvent(logName, fqcn, level, msg, thrown);
-        events.add(evt);
+    static boolean add(final String logName, final String fqcn, final int level, final String msg,
+            final Throwable thrown) {
+        long timeStamp = currentTimeMillis();
+        long seq = store.add(logName, fqcn, level, msg, thrown, timeStamp);
+        if (seq < 0) {
+            return false;
+        }
         if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
-            report(evt.toString());
+            report(new PreBootstrapLoggingEvent(seq, logName, fqcn, level, msg, thrown, timeStamp).toString());
+        }
+        if (journal != null) {
+            journal.append(seq, timeStamp, level, logName, fqcn, msg, thrown);
         }
+        return true;
     }
 
     /**
-     * Flushes all pre-bootstrap logging events to Logback appenders.
-     * <p>
-     * Logback is not supposed to be accessible with the class loader that has
-     * loaded this {@link PreBootstrapLoggingEvent} class. Typically, this class
-     * has been loaded by the System class loader, whereas Logback is just about
-     * to be loaded by the Catalina class loader.
-     * <p>
-     * That's why this implementation uses introspection to create Logback
-     * logging events and send them to Logback appenders.
+     * Closes the store of pre-bootstrap events, so that they can be claimed.
      *
-     * @param logbackLoader
-     *            the class loader to use in order to access Logback classes.
-     *            This is typically the Catalina class loader, which defaults to
-     *            the common class loader in Tomcat.
+     * @return the pre-bootstrap events, in order, preceded by any events
+     *         recovered from the journal of a previous run, and by a warning
+     *         when some events have been dropped. No event is returned when
+     *         a previous bootstrap attempt has already closed the store.
      */
-    static void flushEvents(final ClassLoader logbackLoader) {
-        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
-            report("PreBootstrapLoggingEvent.flushEvents()");
-        }
-        Class<?> loggerClass;
-        Class<?> iLoggingEventClass;
-        Class<?> loggingEventClass;
-        Class<?> levelClass;
-        try {
-            loggerClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LOGGER_CLASS);
-            iLoggingEventClass = logbackLoader.loadClass(LOGBACK_CLASSIC_ILOGGING_EVENT_CLASS);
-            loggingEventClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LOGGING_EVENT_CLASS);
-            levelClass = logbackLoader.loadClass(LOGBACK_CLASSIC_LEVEL_CLASS);
-        } catch (ClassNotFoundException exc) {
-            report("ERROR: The class '" + LOGBACK_CLASSIC_LOGGING_EVENT_CLASS
-                    + "' must be loadable by the given class loader: " + logbackLoader, exc);
-            return;
+    static Iterator<PreBootstrapLoggingEvent> drainEvents() {
+        if (store.isClosed()) {
+            report("WARN: pre-bootstrap logging events have been lost by a failed bootstrap attempt");
+            return Collections.<PreBootstrapLoggingEvent> emptyIterator();
         }
+        Iterator<PreBootstrapLoggingEvent> stored = store.close();
+        List<PreBootstrapLoggingEvent> preamble = new ArrayList<PreBootstrapLoggingEvent>();
 
-        Constructor<?> loggingEventConstructor;
-        Method callAppendersMethod;
-        Method setTimeStampMethod;
-        try {
-            loggingEventConstructor = loggingEventClass.getConstructor(String.class, loggerClass, levelClass,
-                    String.class, Throwable.class, Object[].class);
-            callAppendersMethod = loggerClass.getMethod("callAppenders", iLoggingEventClass);
-            setTimeStampMethod = loggingEventClass.getMethod("setTimeStamp", long.class);
-        } catch (NoSuchMethodException | SecurityException exc) {
-            report("ERROR: unexpected issue while preparing flush of pre-bootstrap logs to Logback", exc);
-            return;
+        long dropped = store.droppedEvents();
+        if (dropped > 0) {
+            String msg = "Dropped " + dropped + " pre-bootstrap logging events, because the capacity of "
+                    + store.maxEvents() + " events or " + store.maxBytes()
+                    + " bytes was exceeded (overflow policy: " + store.overflowPolicy() + ")";
+            report("WARN: " + msg);
+            preamble.add(new PreBootstrapLoggingEvent(-1, PreBootstrapLoggingEvent.class.getName(),
+                    SLF4JDelegatingLog.FQCN, WARN_INT, msg, null, currentTimeMillis()));
         }
 
-        if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
-            report("PreBootstrapLoggingEvent.flushEvents() flushing " + events.size() + " pre-bootstrap logging events");
-        }
-        for (ListIterator<PreBootstrapLoggingEvent> itr = events.listIterator(); itr.hasNext();) {
-            PreBootstrapLoggingEvent evt = itr.next();
-            Logger logger = obtainLogger(evt.logName);
-            if (!LOGBACK_CLASSIC_LOGGER_CLASS.equals(logger.getClass().getName())) {
-                int count = 0;
-                for (ListIterator<PreBootstrapLoggingEvent> itr2 = events.listIterator(itr.previousIndex()); itr2
-                        .hasNext();) {
-                    if (evt.logName.equals(itr2.next().logName)) {
-                        ++count;
-                    }
-                }
-                report("ERROR: unexpected logger class [" + logger.getClass().getName() + "]. Discarding " + count
-                        + " pre-bootstrap logging events made to the [" + evt.logName + "] logger.");
-            } else {
-                try {
-                    Object loggingEvent = newLoggingEvent(evt, logger, loggingEventConstructor, setTimeStampMethod,
-                            levelClass);
-                    callAppendersMethod.invoke(logger, loggingEvent);
-                    itr.remove();
-                } catch (NoSuchFieldException | InstantiationException | IllegalAccessException
-                        | IllegalArgumentException | InvocationTargetException | SecurityException exc) {
-                    report("ERROR: unexpected issue while flushing pre-bootstrap log events to Logback appenders", exc);
+        if (journal != null) {
+            List<PreBootstrapJournal.Record> recovered = journal.recovered();
+            if (!recovered.isEmpty()) {
+                preamble.add(new PreBootstrapLoggingEvent(-1, PreBootstrapLoggingEvent.class.getName(),
+                        SLF4JDelegatingLog.FQCN, WARN_INT, "Replaying " + recovered.size()
+                                + " pre-bootstrap logging events recovered from the journal of a previous run",
+                        null, currentTimeMillis()));
+                for (PreBootstrapJournal.Record rec : recovered) {
+                    preamble.add(new PreBootstrapLoggingEvent(rec));
                 }
             }
+            journal.close();
         }
+        return preamble.isEmpty() ? stored : new Concatenation(preamble.iterator(), stored);
     }
 
     /**
-     * Builds a new {@code ch.qos.logback.classic.spi.LoggingEvent} using
-     * introstection.
+     * Iterates over the events of two iterators, one after the other.
      */
-    private static Object newLoggingEvent(final PreBootstrapLoggingEvent evt, final Object logger,
-            final Constructor<?> loggingEventConstructor, final Method setTimeStampMethod, final Class<?> levelClass)
-                    throws NoSuchFieldException, InstantiationException, IllegalAccessException, InvocationTargetException {
-        Object level = toLogbackLevel(evt.level, levelClass);
+    private static final class Concatenation implements Iterator<PreBootstrapLoggingEvent> {
+        private final Iterator<PreBootstrapLoggingEvent> first;
+        private final Iterator<PreBootstrapLoggingEvent> second;
 
-        if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
-            Class<?>[] paramsTypes = loggingEventConstructor.getParameterTypes();
-            for (int idx = 0; idx < 0 * paramsTypes.length; ++idx) {
-                Class<?> type = paramsTypes[idx];
-                report("argument #" + idx + " type: " + type.getName() + ", loader: " + type.getClassLoader());
+        Concatenation(final Iterator<PreBootstrapLoggingEvent> first, final Iterator<PreBootstrapLoggingEvent> second) {
+            super();
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return first.hasNext() || second.hasNext();
+        }
+
+        @Override
+        public PreBootstrapLoggingEvent next() {
+            return first.hasNext() ? first.next() : second.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Flushes all pre-bootstrap logging events to the actual logging system.
+     * <p>
+     * The SLF4J backend is not supposed to be accessible with the class loader
+     * that has loaded this {@link PreBootstrapLoggingEvent} class. Typically,
+     * this class has been loaded by the System class loader, whereas Logback
+     * is just about to be loaded by the Catalina class loader.
+     * <p>
+     * That's why events are replayed by {@link PreBootstrapReplayer}s, that
+     * are looked up with the given class loader. Custom replayers come first,
+     * then the {@link LogbackReplayer} when Logback is available, and finally
+     * the {@link GenericReplayer} that supports any SLF4J backend.
+     * <p>
+     * Each distinct logger is obtained once, along with its replayer, so that
+     * replaying {@code n} events that are made to {@code m} loggers runs in
+     * {@code O(n)} time, with {@code m} logger lookups.
+     *
+     * @param backendLoader
+     *            the class loader to use in order to access the SLF4J backend
+     *            classes. This is typically the Catalina class loader, which
+     *            defaults to the common class loader in Tomcat.
+     */
+    static void flushEvents(final ClassLoader backendLoader) {
+        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            report("PreBootstrapLoggingEvent.flushEvents()");
+        }
+        Object event = FlightRecorderEvents.beginReplay();
+        Iterator<PreBootstrapLoggingEvent> events = drainEvents();
+        List<PreBootstrapReplayer> replayers = loadReplayers(backendLoader);
+
+        int count = 0;
+        Map<String, Replay> replays = new HashMap<String, Replay>();
+        while (events.hasNext()) {
+            PreBootstrapLoggingEvent evt = events.next();
+            ++count;
+            Replay replay = replays.get(evt.logName);
+            if (replay == null) {
+                replay = new Replay(obtainLogger(evt.logName), replayers);
+                replays.put(evt.logName, replay);
+            }
+            try {
+                replay.replayer.replay(replay.logger, evt);
+            } catch (RuntimeException | LinkageError exc) {
+                report("ERROR: unexpected issue while flushing pre-bootstrap log events with ["
+                        + replay.replayer.getClass().getName() + "]", exc);
             }
         }
-        Object[] args = { evt.fqcn, logger, level, evt.msg, evt.thrown, null };
+        FlightRecorderEvents.endReplay(event, count, replays.size());
         if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
-            for (int idx = 0; idx < 0 * args.length; idx++) {
-                Class<?> type = args[idx] == null ? Void.class : args[idx].getClass();
-                report("argument #" + idx + " type: " + type.getName() + ", loader: " + type.getClassLoader());
+            report("PreBootstrapLoggingEvent.flushEvents() flushed " + count + " pre-bootstrap logging events");
+        }
+    }
+
+    /**
+     * @return the replayers for the SLF4J backend, by order of precedence.
+     */
+    private static List<PreBootstrapReplayer> loadReplayers(final ClassLoader backendLoader) {
+        List<PreBootstrapReplayer> replayers = new ArrayList<PreBootstrapReplayer>();
+        try {
+            for (PreBootstrapReplayer replayer : ServiceLoader.load(PreBootstrapReplayer.class, backendLoader)) {
+                replayers.add(replayer);
+            }
+        } catch (ServiceConfigurationError err) {
+            report("WARN: could not load custom pre-bootstrap replayers", err);
+        }
+        try {
+            replayers.add(new LogbackReplayer(backendLoader));
+        } catch (ClassNotFoundException exc) {
+            if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("Logback is not loadable by [" + backendLoader + "]. Not using the Logback replayer.");
             }
+        } catch (ReflectiveOperationException | SecurityException exc) {
+            report("WARN: unexpected issue while preparing flush of pre-bootstrap logs to Logback."
+                    + " Falling back to the generic replayer.", exc);
         }
-        Object loggingEvent = loggingEventConstructor.newInstance(args);
+        replayers.add(new GenericReplayer());
+        return replayers;
+    }
+
+    /**
+     * The actual logger that events with a given logger name are replayed to,
+     * along with the replayer that supports it.
+     */
+    private static final class Replay {
+        final Logger logger;
+        final PreBootstrapReplayer replayer;
 
-        setTimeStampMethod.invoke(loggingEvent, evt.timeStamp);
-        return loggingEvent;
+        Replay(final Logger logger, final List<PreBootstrapReplayer> replayers) {
+            super();
+            this.logger = logger;
+            this.replayer = supportingReplayer(logger, replayers);
+            if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
+                report("replaying events of [" + logger.getName() + "] with [" + replayer.getClass().getName()
+                        + "]");
+            }
+        }
     }
 
     /**
-     * Converts a log level from {@link LocationAwareLogger} into an instance of
-     * {@code ch.qos.logback.classic.Level}, using introspection.
+     * Selects the first replayer that supports the given logger. Replayers
+     * that fail telling so are skipped, so that custom replayers can't abort
+     * the flush of events that are already drained. The last replayer is
+     * supposed to support any logger.
+     *
+     * @param logger
+     *            the actual logger that events are to be replayed to
+     * @param replayers
+     *            the replayers, by order of precedence
+     * @return the selected replayer
      */
-    private static Object toLogbackLevel(final int level, final Class<?> levelClass) throws NoSuchFieldException,
-            IllegalArgumentException, IllegalAccessException {
-        Field levelField = null;
-        switch (level) {
-        case TRACE_INT:
-            levelField = levelClass.getDeclaredField(LOGBACK_LEVEL_TRACE_FIELD);
-            break;
-        case DEBUG_INT:
-            levelField = levelClass.getDeclaredField(LOGBACK_LEVEL_DEBUG_FIELD);
-            break;
-        case INFO_INT:
-            levelField = levelClass.getDeclaredField(LOGBACK_LEVEL_INFO_FIELD);
-            break;
-        case WARN_INT:
-            levelField = levelClass.getDeclaredField(LOGBACK_LEVEL_WARN_FIELD);
-            break;
-        case ERROR_INT:
-            levelField = levelClass.getDeclaredField(LOGBACK_LEVEL_ERROR_FIELD);
-            break;
+    static PreBootstrapReplayer supportingReplayer(final Logger logger, final List<PreBootstrapReplayer> replayers) {
+        int last = replayers.size() - 1;
+        for (int idx = 0; idx < last; ++idx) {
+            PreBootstrapReplayer replayer = replayers.get(idx);
+            try {
+                if (replayer.supports(logger)) {
+                    return replayer;
+                }
+            } catch (RuntimeException | LinkageError exc) {
+                report("WARN: could not tell whether [" + replayer.getClass().getName() + "] supports ["
+                        + logger.getName() + "]. Skipping it.", exc);
+            }
         }
-        return levelField.get(null);
+        return replayers.get(last);
     }
 
-    private String logName;
-    private String fqcn;
-    private int level;
-    private String msg;
-    private Throwable thrown;
-    private long timeStamp;
+    final long seq;
+    final String logName;
+    final String fqcn;
+    final int level;
+    final String msg;
+    final Throwable thrown;
+    final long timeStamp;
 
     /**
-     * Private constructor because the interface for creating pre-bootstrap log
-     * events is the {@link #add} class method.
+     * Package-private constructor because the interface for creating
+     * pre-bootstrap log events is the {@link #add} class method. Instances are
+     * only created when flushing events from their compact storage.
      */
-    private PreBootstrapLoggingEvent(final String logName, final String fqcn, final int level, final String msg,
-            final Throwable thrown) {
+    PreBootstrapLoggingEvent(final long seq, final String logName, final String fqcn, final int level,
+            final String msg, final Throwable thrown, final long timeStamp) {
         super();
+        this.seq = seq;
         this.logName = logName;
         this.fqcn = fqcn;
         this.level = level;
         this.msg = msg;
         this.thrown = thrown;
-        timeStamp = currentTimeMillis();
+        this.timeStamp = timeStamp;
+    }
+
+    /**
+     * Private constructor for events recovered from a journal.
+     */
+    private PreBootstrapLoggingEvent(final PreBootstrapJournal.Record rec) {
+        super();
+        seq = rec.seq;
+        logName = rec.logName;
+        fqcn = rec.fqcn;
+        level = rec.level;
+        msg = rec.fullMessage();
+        thrown = null;
+        timeStamp = rec.timeStamp;
+    }
+
+    /**
+     * @return the name of the logger that this event is made to.
+     */
+    public String getLoggerName() {
+        return logName;
+    }
+
+    /**
+     * @return the fully qualified class name of the original logger, which
+     *         helps computing caller data.
+     */
+    public String getFqcn() {
+        return fqcn;
+    }
+
+    /**
+     * @return the detail level of this event, as one of the
+     *         {@link org.slf4j.spi.LocationAwareLogger} levels.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the message of this event.
+     */
+    public String getMessage() {
+        return msg;
+    }
+
+    /**
+     * @return any throwable to log along with the message, or {@code null}.
+     */
+    public Throwable getThrowable() {
+        return thrown;
+    }
+
+    /**
+     * @return the time at which this event has been made, in milliseconds
+     *         since the epoch.
+     */
+    public long getTimeStamp() {
+        return timeStamp;
     }
 
     /**
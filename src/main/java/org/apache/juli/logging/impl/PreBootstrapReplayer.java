@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import org.slf4j.Logger;
+
+/**
+ * Service Provider Interface for replaying pre-bootstrap logging events into
+ * some specific SLF4J backend, once the logging system is bootstrapped.
+ * <p>
+ * Implementations are looked up with the {@link java.util.ServiceLoader}
+ * mechanism, using the class loader of the SLF4J backend, i.e. typically the
+ * Catalina class loader. They are tried in turn before the built-in replayers,
+ * which are the Logback one, then a generic one that replays events through
+ * the {@link org.slf4j.spi.LocationAwareLogger} or {@link Logger} interfaces.
+ * <p>
+ * Unlike the generic replayer, backend-specific replayers are supposed to keep
+ * the original {@linkplain PreBootstrapLoggingEvent#getTimeStamp() timestamp}
+ * of events.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapLoggingEvent#flushEvents(ClassLoader)
+ */
+public interface PreBootstrapReplayer {
+
+    /**
+     * Tells whether this replayer can replay events to the given logger. This
+     * is called once per distinct logger name.
+     *
+     * @param logger
+     *            the actual SLF4J logger that events are made to
+     * @return {@code true} if this replayer supports the given logger, or
+     *         {@code false} otherwise.
+     */
+    boolean supports(Logger logger);
+
+    /**
+     * Replays one pre-bootstrap logging event.
+     *
+     * @param logger
+     *            the actual SLF4J logger that the event is made to, as
+     *            previously {@linkplain #supports(Logger) supported}
+     * @param event
+     *            the event to replay
+     */
+    void replay(Logger logger, PreBootstrapLoggingEvent event);
+}
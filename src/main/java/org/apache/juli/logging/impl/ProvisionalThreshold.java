@@ -0,0 +1,272 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.JULI_LOGBACK_CONFIG_PROPERTY;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the provisional level threshold of {@link PreBootstrapLogger}s,
+ * below which pre-bootstrap logging events are discarded instead of being
+ * stored.
+ * <p>
+ * The threshold is set by the {@value #THRESHOLD_PROPERTY} system property,
+ * that can be one of:
+ * <ul>
+ * <li>{@code TRACE}, {@code DEBUG}, {@code INFO}, {@code WARN} or
+ * {@code ERROR}, as an explicit threshold,</li>
+ * <li>{@code ALL}, in order to keep all events, which is handy when
+ * diagnosing,</li>
+ * <li>{@code AUTO}, the default, in order to pre-parse the levels that are set
+ * in the Logback configuration file given by the
+ * {@code juli.logback.configurationFile} system property.</li>
+ * </ul>
+ * The pre-parsing is a quick scan of the levels that are set in the
+ * configuration file, and not an actual XML parsing. Because any logger can
+ * enable a lower level than the root logger, the lowest level that is set in
+ * the file is retained, so that no event that Logback would log is discarded.
+ * When the root logger has no level set, e.g. because its {@code <root>}
+ * element has no {@code level} attribute, its default {@code DEBUG} level is
+ * retained as well.
+ * Whenever the scan cannot be conclusive, e.g. because of variables, included
+ * files, or turbo filters that can accept events below the logger levels, all
+ * events are kept.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see PreBootstrapLogger
+ */
+final class ProvisionalThreshold {
+
+    static final String THRESHOLD_PROPERTY = "juli.preBootstrap.threshold";
+
+    private static final String ALL = "ALL";
+    private static final String AUTO = "AUTO";
+    private static final String OFF = "OFF";
+
+    /** The level that Logback sets on the root logger by default. */
+    private static final int LOGBACK_DEFAULT_ROOT_LEVEL = DEBUG_INT;
+
+    /** Config files larger than this are not pre-parsed. */
+    private static final int MAX_CONFIG_CHARS = 1024 * 1024;
+
+    private static final Pattern LEVEL_PATTERN = Pattern.compile(
+            "(?:\\blevel\\s*=\\s*|<level\\s+value\\s*=\\s*)[\"']([^\"']*)[\"']", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ROOT_PATTERN = Pattern.compile("<root\\b([^>]*?)(/?)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ROOT_END_PATTERN = Pattern.compile("</root\\s*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LEVEL_ATTRIBUTE_PATTERN = Pattern.compile("\\blevel\\s*=",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern LEVEL_ELEMENT_PATTERN = Pattern.compile("<level\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern URL_SCHEME_PATTERN = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]+:");
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("<include\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TURBO_FILTER_PATTERN = Pattern.compile("<turboFilter\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private ProvisionalThreshold() {
+        // Not to be instantiated
+    }
+
+    /**
+     * @return the provisional threshold, as one of the
+     *         {@link org.slf4j.spi.LocationAwareLogger} levels.
+     */
+    static int resolve() {
+        String setting = System.getProperty(THRESHOLD_PROPERTY, AUTO).trim().toUpperCase(Locale.ENGLISH);
+        int threshold;
+        if (AUTO.equals(setting)) {
+            threshold = fromConfigFile(System.getProperty(JULI_LOGBACK_CONFIG_PROPERTY));
+        } else if (ALL.equals(setting)) {
+            threshold = TRACE_INT;
+        } else {
+            threshold = toLevel(setting);
+            if (threshold < 0) {
+                report("WARN: unknown pre-bootstrap threshold [" + setting + "]. Keeping all events.");
+                threshold = TRACE_INT;
+            }
+        }
+        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            report("ProvisionalThreshold.resolve() = " + threshold);
+        }
+        return threshold;
+    }
+
+    /**
+     * Pre-parses the given Logback configuration file.
+     *
+     * @param configFile
+     *            the path or {@code file:} URL of the configuration file, or
+     *            {@code null}
+     * @return the lowest level that is set in the configuration file, or
+     *         {@code TRACE_INT} when this cannot be told.
+     */
+    static int fromConfigFile(final String configFile) {
+        String content = readConfigFile(configFile);
+        return content == null ? TRACE_INT : lowestLevel(content);
+    }
+
+    /**
+     * Reads the given Logback configuration file, for pre-parsing it.
+     *
+     * @param configFile
+     *            the path or {@code file:} URL of the configuration file, or
+     *            {@code null}
+     * @return the content of the configuration file, or {@code null} when it
+     *         cannot be read, is too large, or is not a local file.
+     */
+    static String readConfigFile(final String configFile) {
+        File file = toFile(configFile);
+        if (file == null || !file.isFile() || file.length() > MAX_CONFIG_CHARS) {
+            return null;
+        }
+        try {
+            return read(file);
+        } catch (IOException exc) {
+            if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("could not pre-parse [" + file + "]", exc);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the given Logback configuration includes other
+     *         files, that are not pre-parsed.
+     */
+    static boolean hasIncludes(final CharSequence config) {
+        return INCLUDE_PATTERN.matcher(config).find();
+    }
+
+    /**
+     * @return {@code true} if the given Logback configuration has turbo
+     *         filters, that may accept events below the logger levels, as
+     *         {@code DynamicThresholdFilter} or {@code MDCFilter} do.
+     */
+    static boolean hasTurboFilters(final CharSequence config) {
+        return TURBO_FILTER_PATTERN.matcher(config).find();
+    }
+
+    /**
+     * Scans the levels that are set in some Logback configuration.
+     *
+     * @return the lowest level that is set, or {@code TRACE_INT} when this
+     *         cannot be told.
+     */
+    static int lowestLevel(final CharSequence config) {
+        if (hasIncludes(config) || hasTurboFilters(config)) {
+            return TRACE_INT;
+        }
+        int lowest = setsRootLevel(config) ? ERROR_INT : LOGBACK_DEFAULT_ROOT_LEVEL;
+        for (Matcher matcher = LEVEL_PATTERN.matcher(config); matcher.find();) {
+            String name = matcher.group(1).trim().toUpperCase(Locale.ENGLISH);
+            if (OFF.equals(name) || "INHERITED".equals(name) || "NULL".equals(name)) {
+                continue;
+            }
+            int level = ALL.equals(name) ? TRACE_INT : toLevel(name);
+            if (level < 0) {
+                // Typically a variable that we don't substitute
+                return TRACE_INT;
+            }
+            lowest = Math.min(lowest, level);
+        }
+        return lowest;
+    }
+
+    /**
+     * @return {@code true} if some {@code <root>} element of the given Logback
+     *         configuration sets a level, either with a {@code level} attribute
+     *         or with a {@code <level>} child element, or {@code false} when
+     *         the root logger keeps its default level.
+     */
+    static boolean setsRootLevel(final CharSequence config) {
+        for (Matcher root = ROOT_PATTERN.matcher(config); root.find();) {
+            if (LEVEL_ATTRIBUTE_PATTERN.matcher(root.group(1)).find()) {
+                return true;
+            }
+            if (root.group(2).isEmpty()) {
+                Matcher end = ROOT_END_PATTERN.matcher(config);
+                int bodyEnd = end.find(root.end()) ? end.start() : config.length();
+                if (LEVEL_ELEMENT_PATTERN.matcher(config.subSequence(root.end(), bodyEnd)).find()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int toLevel(final String name) {
+        switch (name) {
+        case "TRACE":
+            return TRACE_INT;
+        case "DEBUG":
+            return DEBUG_INT;
+        case "INFO":
+            return INFO_INT;
+        case "WARN":
+            return WARN_INT;
+        case "ERROR":
+            return ERROR_INT;
+        default:
+            return -1;
+        }
+    }
+
+    private static File toFile(final String configFile) {
+        if (configFile == null) {
+            return null;
+        }
+        if (configFile.startsWith("file:")) {
+            try {
+                return new File(new URI(configFile));
+            } catch (URISyntaxException | IllegalArgumentException exc) {
+                return null;
+            }
+        }
+        // Other URLs or resources are not pre-parsed, but Windows drive letters
+        // are not mistaken for URL schemes
+        return URL_SCHEME_PATTERN.matcher(configFile).lookingAt() ? null : new File(configFile);
+    }
+
+    private static String read(final File file) throws IOException {
+        StringBuilder builder = new StringBuilder((int) file.length());
+        try (InputStream in = new FileInputStream(file);
+                Reader reader = new InputStreamReader(in, Charset.forName("UTF-8"))) {
+            char[] buf = new char[8192];
+            for (int count; (count = reader.read(buf)) >= 0;) {
+                builder.append(buf, 0, count);
+            }
+        }
+        return builder.toString();
+    }
+}
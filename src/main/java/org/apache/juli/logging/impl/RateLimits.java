@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Integer.getInteger;
+import static org.slf4j.helpers.Util.report;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+/**
+ * Limits the rate of logging events of {@link SLF4JDelegatingLog} facades, by
+ * logger name and level, so that log storms don't amplify an outage.
+ * <p>
+ * Rate limits are set by the {@value #RATE_LIMITS_PROPERTY} system property,
+ * as a comma-separated list of {@code <prefix>[:<LEVEL>]=<events>/<unit>}
+ * rules, where the unit is {@code s}, {@code m} or {@code h}. For example,
+ * {@code org.apache.coyote:WARN=100/s,org.apache.tomcat.util.net=10/s} allows
+ * 100 {@code WARN} events per second to each logger under
+ * {@code org.apache.coyote}, and 10 events of any level per second to each
+ * logger under {@code org.apache.tomcat.util.net}. A prefix matches the logger
+ * with this very name and its descendants. When several rules match, the one
+ * with the longest prefix wins, and then the one with an explicit level.
+ * {@code FATAL} events are limited as {@code ERROR} ones.
+ * <p>
+ * Each logger name and level has its own token bucket, that holds as many
+ * tokens as the allowed events per unit, and is refilled continuously. It is
+ * implemented as a <em>generic cell rate algorithm</em>, where the bucket
+ * state is a single theoretical arrival time, so that an event is allowed or
+ * suppressed with one compare-and-set, without any lock.
+ * <p>
+ * The number of suppressed events is logged as a {@code WARN} summary by the
+ * logger they were suppressed from, every {@value #SUMMARY_PERIOD_PROPERTY}
+ * seconds, which defaults to {@value #DEFAULT_SUMMARY_PERIOD}. Summaries are
+ * started by {@link SeparateLogbackSupport} at bootstrap time.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+final class RateLimits {
+
+    static final String RATE_LIMITS_PROPERTY = "juli.rateLimits";
+    static final String SUMMARY_PERIOD_PROPERTY = "juli.rateLimits.summaryPeriod";
+    static final int DEFAULT_SUMMARY_PERIOD = 60;
+
+    private static final String[] LEVEL_NAMES = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR" };
+
+    private static final Pattern RULE_PATTERN = Pattern
+            .compile("\\s*([^\\s:=]+)(?::(\\w+))?\\s*=\\s*(\\d{1,9})\\s*/\\s*([smh])\\s*");
+
+    /** A rule that applies to any level. */
+    private static final int ANY_LEVEL = -1;
+
+    private static final List<Rule> rules = parseRules(System.getProperty(RATE_LIMITS_PROPERTY));
+
+    /** Whether some rate limit is configured. */
+    static final boolean CONFIGURED = !rules.isEmpty();
+
+    private static final ConcurrentMap<String, RateLimits> registry = new ConcurrentHashMap<String, RateLimits>();
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+
+    private final String name;
+
+    /** The buckets, indexed by level divided by ten, or {@code null}. */
+    private final Bucket[] buckets;
+
+    private RateLimits(final String name, final Bucket[] buckets) {
+        super();
+        this.name = name;
+        this.buckets = buckets;
+    }
+
+    /**
+     * @param name
+     *            the name of a logger
+     * @return the rate limits of the given logger name, shared by all facades
+     *         that have this name, or {@code null} when no rule matches it.
+     */
+    static RateLimits of(final String name) {
+        if (name == null) {
+            return null;
+        }
+        RateLimits limits = registry.get(name);
+        if (limits != null) {
+            return limits;
+        }
+        Bucket[] buckets = new Bucket[LEVEL_NAMES.length];
+        boolean limited = false;
+        for (int idx = 0; idx < buckets.length; ++idx) {
+            Rule rule = ruleFor(name, TRACE_INT + idx * (DEBUG_INT - TRACE_INT));
+            if (rule != null) {
+                buckets[idx] = new Bucket(rule);
+                limited = true;
+            }
+        }
+        if (!limited) {
+            return null;
+        }
+        limits = registry.putIfAbsent(name, new RateLimits(name, buckets));
+        return limits != null ? limits : registry.get(name);
+    }
+
+    /**
+     * @param level
+     *            the level of a logging event
+     * @return {@code true} when the event is allowed, or {@code false} when it
+     *         is suppressed.
+     */
+    boolean tryAcquire(final int level) {
+        Bucket bucket = buckets[(Math.min(level, ERROR_INT) - TRACE_INT) / (DEBUG_INT - TRACE_INT)];
+        return bucket == null || bucket.tryAcquire();
+    }
+
+    private static Rule ruleFor(final String name, final int level) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if ((rule.level == ANY_LEVEL || rule.level == level) && rule.matches(name)
+                    && (best == null || rule.prefix.length() > best.prefix.length()
+                            || rule.prefix.length() == best.prefix.length() && best.level == ANY_LEVEL)) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Parses rate limit rules, reporting and skipping invalid ones.
+     *
+     * @param spec
+     *            the comma-separated rules, or {@code null}
+     * @return the parsed rules
+     */
+    static List<Rule> parseRules(final String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Rule> parsed = new ArrayList<Rule>();
+        for (String ruleSpec : spec.split(",")) {
+            Matcher matcher = RULE_PATTERN.matcher(ruleSpec);
+            int level = ERROR_INT + 10;
+            long events = 0;
+            if (matcher.matches()) {
+                level = levelOf(matcher.group(2));
+                events = Long.parseLong(matcher.group(3));
+            }
+            if (level > ERROR_INT || events <= 0) {
+                report("WARN: ignoring invalid rate limit [" + ruleSpec.trim() + "] in the [" + RATE_LIMITS_PROPERTY
+                        + "] system property");
+                continue;
+            }
+            parsed.add(new Rule(matcher.group(1), level, events, unitOf(matcher.group(4))));
+        }
+        return parsed;
+    }
+
+    private static int levelOf(final String name) {
+        if (name == null) {
+            return ANY_LEVEL;
+        }
+        switch (name.toUpperCase(Locale.ENGLISH)) {
+        case "TRACE":
+            return TRACE_INT;
+        case "DEBUG":
+            return DEBUG_INT;
+        case "INFO":
+            return INFO_INT;
+        case "WARN":
+            return WARN_INT;
+        case "ERROR":
+        case "FATAL":
+            return ERROR_INT;
+        default:
+            return ERROR_INT + 10;
+        }
+    }
+
+    private static TimeUnit unitOf(final String unit) {
+        switch (unit) {
+        case "h":
+            return TimeUnit.HOURS;
+        case "m":
+            return TimeUnit.MINUTES;
+        default:
+            return TimeUnit.SECONDS;
+        }
+    }
+
+    /**
+     * Schedules the periodic summaries of suppressed events, unless no rate
+     * limit is configured or this has already been done.
+     */
+    static void start() {
+        if (!CONFIGURED || !started.compareAndSet(false, true)) {
+            return;
+        }
+        int period = Math.max(1, getInteger(SUMMARY_PERIOD_PROPERTY, DEFAULT_SUMMARY_PERIOD));
+        long periodMillis = TimeUnit.SECONDS.toMillis(period);
+        BackgroundTasks.schedule("rate limits summary", new Summary(period), periodMillis);
+    }
+
+    /** A parsed rate limit rule. */
+    static final class Rule {
+        final String prefix;
+        final int level;
+
+        /** The time between two allowed events, in nanoseconds. */
+        final long interval;
+
+        /** The time span of a full bucket, in nanoseconds. */
+        final long tolerance;
+
+        Rule(final String prefix, final int level, final long events, final TimeUnit unit) {
+            super();
+            this.prefix = prefix;
+            this.level = level;
+            this.tolerance = unit.toNanos(1);
+            this.interval = Math.max(1, tolerance / events);
+        }
+
+        boolean matches(final String name) {
+            return name.startsWith(prefix)
+                    && (name.length() == prefix.length() || name.charAt(prefix.length()) == '.');
+        }
+    }
+
+    /**
+     * A token bucket, which state is the theoretical arrival time of the next
+     * event, as a {@link System#nanoTime()} value.
+     */
+    static final class Bucket extends AtomicLong {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong suppressed = new AtomicLong();
+
+        Bucket(final Rule rule) {
+            super(System.nanoTime() - rule.tolerance);
+            this.interval = rule.interval;
+            this.tolerance = rule.tolerance;
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long arrival = get();
+                long next = Math.max(arrival - now, -tolerance) + interval;
+                if (next > 0) {
+                    suppressed.incrementAndGet();
+                    return false;
+                }
+                if (compareAndSet(arrival, now + next)) {
+                    return true;
+                }
+            }
+        }
+
+        long drainSuppressed() {
+            return suppressed.getAndSet(0);
+        }
+    }
+
+    /**
+     * Logs, for each logger name and level, the number of events that have
+     * been suppressed since the previous summary, unless there is none.
+     */
+    private static final class Summary implements Runnable {
+
+        private final int period;
+
+        Summary(final int period) {
+            super();
+            this.period = period;
+        }
+
+        @Override
+        public void run() {
+            for (RateLimits limits : registry.values()) {
+                for (int idx = 0; idx < limits.buckets.length; ++idx) {
+                    Bucket bucket = limits.buckets[idx];
+                    long count = bucket == null ? 0 : bucket.drainSuppressed();
+                    if (count > 0) {
+                        String msg = "Suppressed " + count + " " + LEVEL_NAMES[idx]
+                                + " logging events over the last " + period + " s, because of rate limits";
+                        try {
+                            Logger logger = SeparateLogbackSupport.obtainLogger(limits.name);
+                            logger.warn(msg);
+                        } catch (RuntimeException exc) {
+                            report("WARN: could not log the rate limits summary for [" + limits.name + "]: " + msg,
+                                    exc);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -17,9 +17,9 @@
 package org.apache.juli.logging.impl;
 
 import static java.lang.Integer.getInteger;
-import static java.lang.String.valueOf;
-import static org.apache.juli.logging.impl.SeparateLogbackSupport.bootstrapLoggingSystemIfPossible;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.UNCACHEABLE_LEVELS;
 import static org.apache.juli.logging.impl.SeparateLogbackSupport.bootstrapped;
+import static org.apache.juli.logging.impl.SeparateLogbackSupport.levelsGeneration;
 import static org.apache.juli.logging.impl.SeparateLogbackSupport.obtainLogger;
 import static org.apache.juli.logging.impl.SeparateLogbackSupport.obtainPreBootstrapLoggerIfNecessary;
 import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
@@ -45,8 +45,13 @@ import org.slf4j.spi.LocationAwareLogger;
  * <p>
  * This facade delegates to {@link SeparateLogbackSupport} the task of
  * automatically bootstrapping Logback at the right time. For this bootstrap to
- * run properly in multi-thraded environments, a global lock on this
- * {@link SLF4JDelegatingLog} class is used.
+ * run properly in multi-thraded environments, a global
+ * {@linkplain SeparateLogbackSupport#bootstrapLock bootstrap lock} is used.
+ * <p>
+ * Since version 1.2.0, the actual logging is done by a {@link LoggerDelegate}
+ * strategy that is switched at bootstrap time. Only the pre-bootstrap delegate
+ * synchronizes on the global lock. After bootstrap, logging events go straight
+ * to the underlying logger, without checking any volatile flag.
  * <p>
  * The logging behaves differently before and after Logback bootstrap. (Here we
  * refer to the “bootstrap” as being the Logback initialization, which happens
@@ -73,6 +78,25 @@ import org.slf4j.spi.LocationAwareLogger;
  * Since version 1.0.1, this implementation properly supports the case were the
  * underlying logger is a {@link LocationAwareLogger}.
  * <p>
+ * Since version 1.2.0, logging events are discarded right away when their
+ * level is not enabled, so that messages are not even converted to
+ * {@link String}. This matters for the many {@code debug} messages of Tomcat,
+ * that are typically built with costly {@code toString()} implementations.
+ * <p>
+ * Whenever {@link SeparateLogbackSupport} supports it, the lowest enabled
+ * level of the underlying logger is cached, so that level checks are plain
+ * integer comparisons. The cache is invalidated when the Logback
+ * configuration changes.
+ * <p>
+ * Since version 1.2.0, logging events can be counted by logger name and
+ * level, as described in {@link LogCounters}, and the time spent in the
+ * underlying logger can be sampled, as described in {@link LatencyHistograms}.
+ * Events can also be suppressed by {@linkplain RateLimits rate limits}, so
+ * that log storms don't amplify an outage, and repeated events can be
+ * {@linkplain DuplicateCollapser collapsed}. On Java 11 and later, slow logging
+ * calls are also recorded as
+ * {@linkplain FlightRecorderEvents flight recorder events}.
+ * <p>
  * Diagnostics can be activated by lowering their detail level with the
  * {@code org.apache.juli.logging.impl.SLF4JDelegatingLog.diagnostics} system
  * property. Reference values are those defined by the
@@ -89,7 +113,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
 
     private static final long serialVersionUID = 4326548378678492807L;
 
-    private static final String FQCN = SLF4JDelegatingLog.class.getName();
+    static final String FQCN = SLF4JDelegatingLog.class.getName();
 
     private static final String DIAGNOSTICS_LEVEL_PROPERTY = "org.apache.juli.logging.impl.SLF4JDelegatingLog.diagnostics";
     public static volatile int diagnostics = getInteger(DIAGNOSTICS_LEVEL_PROPERTY, WARN_INT);
@@ -100,25 +124,57 @@ public class SLF4JDelegatingLog implements Log, Serializable {
     protected String name;
 
     /**
-     * The delegate slf4j logger.
+     * The delegate strategy, that wraps the underlying slf4j logger.
      * <p>
      * NOTE: in both {@code Log4jLogger} and {@code Jdk14Logger} classes in the
      * original JCL, as well as in the
      * {@code org.apache.commons.logging.impl.SLF4JLog} of
      * {@code jcl-over-slf4j}, the logger instance is <em>transient</em>, so we
      * do the same here.
+     * <p>
+     * This field is only changed once, when the pre-bootstrap logger is
+     * swapped, while holding the global lock. The
+     * {@link LoggerDelegate.PreBootstrapDelegate} stores events without any
+     * lock, though. Once the store is flushed, a stale pre-bootstrap delegate
+     * fails storing events, and acquires the global lock, which publishes the
+     * new delegate. But level checks never acquire this lock, and the volatile
+     * {@linkplain SeparateLogbackSupport#levelsGeneration levels generation}
+     * is not written after the swap when levels are not cacheable. So this
+     * field is volatile, lest a stale delegate keep answering level checks
+     * with the provisional threshold.
      */
-    private transient volatile Logger log;
+    transient volatile LoggerDelegate delegate;
 
     /**
-     * This flag becomes {@code true} when the underlying implementation is not
-     * a {@link LocationAwareLogger}, which triggers some optimizations.
+     * The cached lowest enabled level of the underlying logger, in the lowest
+     * 8 bits, along with the
+     * {@linkplain SeparateLogbackSupport#levelsGeneration levels generation}
+     * it was computed for, in the upper 24 bits. Packing both values in a
+     * single {@code int} guarantees they are always read and written
+     * consistently, without any synchronization.
      * <p>
-     * We use the {@code true} value for the most common case that we want to
-     * optimize. Location aware loggers generally have a larger computational
-     * cost.
+     * A zero value means that no level is cached, because generations start
+     * at {@code 1}.
+     */
+    private transient int levelCache;
+
+    /**
+     * The counters of this logger name, or {@code null} when
+     * {@linkplain LogCounters#ENABLED counting} is disabled.
+     */
+    private transient LogCounters counters;
+
+    /**
+     * The rate limits of this logger name, or {@code null} when no
+     * {@linkplain RateLimits rate limit} applies.
      */
-    private boolean noLocationAware;
+    private transient RateLimits limits;
+
+    /** The cached level for when no level is enabled. */
+    private static final int NO_LEVEL = ERROR_INT + 10;
+
+    /** Whether logging calls are recorded as flight recorder events. */
+    private static final boolean FLIGHT_RECORDED = FlightRecorderEvents.available();
 
     /**
      * The default constructor is mandatory, as per the
@@ -142,6 +198,12 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     public SLF4JDelegatingLog(final String name) {
         super();
+        if (LogCounters.ENABLED) {
+            counters = LogCounters.of(name);
+        }
+        if (RateLimits.CONFIGURED) {
+            limits = RateLimits.of(name);
+        }
         if (bootstrapped) {
             setLogger(obtainLogger(name));
         } else {
@@ -158,8 +220,38 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      *            logging to.
      */
     void setLogger(final Logger logger) {
-        log = logger;
-        noLocationAware = !(logger instanceof LocationAwareLogger) && !(logger instanceof PreBootstrapLogger);
+        delegate = LoggerDelegate.of(this, logger);
+        levelCache = 0;
+    }
+
+    /**
+     * Tells whether the given level is enabled, using the cached lowest enabled
+     * level whenever possible.
+     */
+    private boolean isEnabled(final int level) {
+        int generation = levelsGeneration();
+        if (generation == UNCACHEABLE_LEVELS) {
+            return delegate.isEnabled(level);
+        }
+        int cache = levelCache;
+        if (cache >>> 8 != generation) {
+            LoggerDelegate current = delegate;
+            if (!current.isLevelCacheable()) {
+                return current.isEnabled(level);
+            }
+            cache = generation << 8 | lowestEnabledLevel(current);
+            levelCache = cache;
+        }
+        return level >= (cache & 0xFF);
+    }
+
+    private static int lowestEnabledLevel(final LoggerDelegate delegate) {
+        for (int level = TRACE_INT; level <= ERROR_INT; level += 10) {
+            if (delegate.isEnabled(level)) {
+                return level;
+            }
+        }
+        return NO_LEVEL;
     }
 
     /**
@@ -172,7 +264,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isTraceEnabled() {
-        return log.isTraceEnabled();
+        return isEnabled(TRACE_INT);
     }
 
     /**
@@ -185,7 +277,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isDebugEnabled() {
-        return log.isDebugEnabled();
+        return isEnabled(DEBUG_INT);
     }
 
     /**
@@ -198,7 +290,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isInfoEnabled() {
-        return log.isInfoEnabled();
+        return isEnabled(INFO_INT);
     }
 
     /**
@@ -211,7 +303,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isWarnEnabled() {
-        return log.isWarnEnabled();
+        return isEnabled(WARN_INT);
     }
 
     /**
@@ -224,7 +316,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isErrorEnabled() {
-        return log.isErrorEnabled();
+        return isEnabled(ERROR_INT);
     }
 
     /**
@@ -239,7 +331,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public boolean isFatalEnabled() {
-        return log.isErrorEnabled();
+        return isEnabled(ERROR_INT);
     }
 
     /**
@@ -271,22 +363,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public void trace(final Object msg, final Throwable thrown) {
-        if (bootstrapped) {
-            doTrace(msg, thrown);
-        } else {
-            bootstrapLoggingSystemIfPossible();
-            synchronized (SLF4JDelegatingLog.class) {
-                doTrace(msg, thrown);
-            }
-        }
-    }
-
-    private void doTrace(final Object msg, final Throwable thrown) {
-        if (noLocationAware) {
-            log.trace(valueOf(msg), thrown);
-        } else {
-            ((LocationAwareLogger) log).log(null, FQCN, TRACE_INT, valueOf(msg), null, thrown);
-        }
+        log(TRACE_INT, msg, thrown);
     }
 
     /**
@@ -318,22 +395,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public void debug(final Object msg, final Throwable thrown) {
-        if (bootstrapped) {
-            doDebug(msg, thrown);
-        } else {
-            bootstrapLoggingSystemIfPossible();
-            synchronized (SLF4JDelegatingLog.class) {
-                doDebug(msg, thrown);
-            }
-        }
-    }
-
-    private void doDebug(final Object msg, final Throwable thrown) {
-        if (noLocationAware) {
-            log.debug(valueOf(msg), thrown);
-        } else {
-            ((LocationAwareLogger) log).log(null, FQCN, DEBUG_INT, valueOf(msg), null, thrown);
-        }
+        log(DEBUG_INT, msg, thrown);
     }
 
     /**
@@ -365,22 +427,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public void info(final Object msg, final Throwable thrown) {
-        if (bootstrapped) {
-            doInfo(msg, thrown);
-        } else {
-            bootstrapLoggingSystemIfPossible();
-            synchronized (SLF4JDelegatingLog.class) {
-                doInfo(msg, thrown);
-            }
-        }
-    }
-
-    private void doInfo(final Object msg, final Throwable thrown) {
-        if (noLocationAware) {
-            log.info(valueOf(msg), thrown);
-        } else {
-            ((LocationAwareLogger) log).log(null, FQCN, INFO_INT, valueOf(msg), null, thrown);
-        }
+        log(INFO_INT, msg, thrown);
     }
 
     /**
@@ -412,22 +459,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public void warn(final Object msg, final Throwable thrown) {
-        if (bootstrapped) {
-            doWarn(msg, thrown);
-        } else {
-            bootstrapLoggingSystemIfPossible();
-            synchronized (SLF4JDelegatingLog.class) {
-                doWarn(msg, thrown);
-            }
-        }
-    }
-
-    private void doWarn(final Object msg, final Throwable thrown) {
-        if (noLocationAware) {
-            log.warn(String.valueOf(msg), thrown);
-        } else {
-            ((LocationAwareLogger) log).log(null, FQCN, WARN_INT, valueOf(msg), null, thrown);
-        }
+        log(WARN_INT, msg, thrown);
     }
 
     /**
@@ -459,22 +491,7 @@ public class SLF4JDelegatingLog implements Log, Serializable {
      */
     @Override
     public void error(final Object msg, final Throwable thrown) {
-        if (bootstrapped) {
-            doError(msg, thrown);
-        } else {
-            bootstrapLoggingSystemIfPossible();
-            synchronized (SLF4JDelegatingLog.class) {
-                doError(msg, thrown);
-            }
-        }
-    }
-
-    private void doError(final Object msg, final Throwable thrown) {
-        if (noLocationAware) {
-            log.error(valueOf(msg), thrown);
-        } else {
-            ((LocationAwareLogger) log).log(null, FQCN, ERROR_INT, valueOf(msg), null, thrown);
-        }
+        log(ERROR_INT, msg, thrown);
     }
 
     /**
@@ -510,6 +527,68 @@ public class SLF4JDelegatingLog implements Log, Serializable {
         error(msg, thrown);
     }
 
+    /**
+     * Logs an event with the delegate, unless the given level is not enabled,
+     * in which case the message is not even converted to {@link String}.
+     */
+    private void log(final int level, final Object msg, final Throwable thrown) {
+        if (isEnabled(level)) {
+            // Messages are converted once, when they are to be compared
+            Object message = DuplicateCollapser.ENABLED ? String.valueOf(msg) : msg;
+            if (!isRepeated(level, message, thrown) && !isRateLimited(level)) {
+                if (LogCounters.ENABLED) {
+                    counters.emitted(level);
+                }
+                if (FLIGHT_RECORDED) {
+                    recordedLog(level, message, thrown);
+                } else {
+                    backendLog(level, message, thrown);
+                }
+                return;
+            }
+        }
+        if (LogCounters.ENABLED) {
+            counters.filtered(level);
+        }
+    }
+
+    private boolean isRepeated(final int level, final Object msg, final Throwable thrown) {
+        return DuplicateCollapser.ENABLED
+                && DuplicateCollapser.isRepeated(delegate.logger().getName(), level, (String) msg, thrown);
+    }
+
+    private boolean isRateLimited(final int level) {
+        return RateLimits.CONFIGURED && limits != null && !limits.tryAcquire(level);
+    }
+
+    private void backendLog(final int level, final Object msg, final Throwable thrown) {
+        if (LatencyHistograms.ENABLED && LatencyHistograms.sampled()) {
+            timedLog(level, msg, thrown);
+        } else {
+            delegate.log(level, msg, thrown);
+        }
+    }
+
+    private void recordedLog(final int level, final Object msg, final Throwable thrown) {
+        Object event = FlightRecorderEvents.beginLogCall();
+        try {
+            backendLog(level, msg, thrown);
+        } finally {
+            if (event != null) {
+                FlightRecorderEvents.endLogCall(event, delegate.logger().getName(), level);
+            }
+        }
+    }
+
+    private void timedLog(final int level, final Object msg, final Throwable thrown) {
+        long start = System.nanoTime();
+        try {
+            delegate.log(level, msg, thrown);
+        } finally {
+            LatencyHistograms.record(level, System.nanoTime() - start);
+        }
+    }
+
     /**
      * Replace the deserialized instance with a fresh new
      * {@link SLF4JDelegatingLog} logger of the same name, so that it properly
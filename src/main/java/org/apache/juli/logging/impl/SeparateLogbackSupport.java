@@ -6,9 +6,22 @@ import static org.slf4j.helpers.Util.report;
 import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
 import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +38,8 @@ import org.slf4j.LoggerFactory;
  * bootstrapping will automatically be triggered as soon as it is detected.
  * <p>
  * This deferred bootstrapping is made of three steps, during which all loggers
- * and logging events creations are blocked.
+ * creations are blocked. Logging events creations are blocked as soon as the
+ * pre-bootstrap events start being flushed.
  * <ol>
  * <li>The {@link LoggerFactory} is triggered, binds to the
  * {@code StaticLoggerBinder} of the Logback that is accessible only by the
@@ -37,13 +51,16 @@ import org.slf4j.LoggerFactory;
  * </ol>
  * <p>
  * For the bootstrapping process to properly block loggers and logging events
- * creations in multi-thraded environments, this implementation synchronizes
- * globally on the {@link SLF4JDelegatingLog SLF4JDelegatingLog.class}, exactly
- * as the facade {@link SLF4JDelegatingLog} instances do (and are supposed to
- * do).
+ * creations in multi-thraded environments, this implementation holds the
+ * global {@link #bootstrapLock}, exactly as the facade
+ * {@link SLF4JDelegatingLog} instances do (and are supposed to do). Since
+ * version 1.2.0, this is a {@link ReentrantLock} instead of the monitor of the
+ * {@link SLF4JDelegatingLog} class, so that virtual threads that wait for the
+ * bootstrap do not pin their carrier thread.
  * <p>
- * The automatic bootstrap-time detection runs a check once every
- * {@value #ONCE_EVERY_FIVE_TIMES} log requests. The current thread
+ * The automatic bootstrap-time detection runs a check at each pre-bootstrap log
+ * request, so that the bootstrap happens with the very first log request that
+ * follows the creation of the Catalina class loader. The current thread
  * {@linkplain Thread#getContextClassLoader() context class loader} is compared
  * with the class loader that has loaded this {@link SeparateLogbackSupport}
  * class. When they start being different, then we conclude that the Catalina
@@ -63,6 +80,29 @@ import org.slf4j.LoggerFactory;
  * For more details about Tomcat class loaders, see the <a
  * href="https://tomcat.apache.org/tomcat-8.0-doc/class-loader-howto.html">Class
  * Loader</a> section of the Tomcat documentation.
+ * <p>
+ * The Logback configuration, which is the longest part of the deferred
+ * bootstrap, runs without holding the global lock. Meanwhile, pre-bootstrap
+ * loggers keep absorbing logging events. With the
+ * {@code -Djuli.asyncBootstrap=true} system property, the whole deferred
+ * bootstrap runs on a background thread, so that it doesn't delay the Catalina
+ * startup anymore. Pre-bootstrap events are then flushed as soon as Logback is
+ * ready.
+ * <p>
+ * The {@code juli.logback.*} system properties are applied by overriding
+ * their global {@code logback.*} counterparts, which a web application that
+ * bundles Logback would read too. So whenever some of them are set, the
+ * Logback configuration holds the global lock, and pre-bootstrap log requests
+ * wait for the global properties to be restored. Web applications are
+ * deployed after Catalina has logged about it, so they don't pick up the
+ * Catalina configuration.
+ * <p>
+ * Once Logback is bootstrapped, a {@code LoggerContextListener} is registered
+ * in its logger context, so that facades can cache the levels of their
+ * underlying loggers. Each time the logger context is reset, or some logger
+ * level is changed, the {@linkplain #levelsGeneration() levels generation} is
+ * incremented, which invalidates all cached levels. This is how the
+ * {@code scan="true"} reloads of the Logback configuration still take effect.
  *
  * @since 1.1.0
  * @author Benjamin Gandon
@@ -78,6 +118,35 @@ public class SeparateLogbackSupport {
     static final String JULI_LOGBACK_STATUS_LISTENER_PROPERTY = JULI_PREXIX + LOGBACK_STATUS_LISTENER_PROPERTY;
     static final String JULI_LOGBACK_CONFIG_PROPERTY = JULI_PREXIX + LOGBACK_CONFIG_PROPERTY;
     static final String JULI_LOGBACK_CTX_SELECTOR_PROPERTY = JULI_PREXIX + LOGBACK_CTX_SELECTOR_PROPERTY;
+    static final String JULI_ASYNC_BOOTSTRAP_PROPERTY = JULI_PREXIX + "asyncBootstrap";
+    static final String JULI_CTX_SELECTOR_PROPERTY = JULI_PREXIX + "contextSelector";
+
+    /**
+     * When {@code true}, the deferred bootstrap runs on a background thread,
+     * instead of the thread that detects the Catalina class loader.
+     */
+    private static final boolean asyncBootstrap = Boolean.getBoolean(JULI_ASYNC_BOOTSTRAP_PROPERTY);
+
+    /**
+     * Becomes {@code true} when the deferred bootstrap starts, so that it only
+     * starts once.
+     */
+    private static final AtomicBoolean bootstrapStarted = new AtomicBoolean(false);
+
+    /**
+     * The global lock, that is held while loggers are created before
+     * bootstrap, and while the logging system is bootstrapped.
+     */
+    static final ReentrantLock bootstrapLock = new ReentrantLock();
+
+    /**
+     * Whether the {@code juli.logback.*} system properties currently override
+     * their {@code logback.*} counterparts.
+     */
+    private static volatile boolean juliLogbackPropertiesInEffect;
+
+    /** The background bootstrap thread, if any. */
+    private static volatile Thread bootstrapThread;
 
     /**
      * This volatile flag is {@code false} before the actual logging system is
@@ -97,8 +166,39 @@ public class SeparateLogbackSupport {
      */
     private static boolean doBootstrapASAP;
 
+    private static final String LOGBACK_LOGGER_CONTEXT_CLASS = "ch.qos.logback.classic.LoggerContext";
+    private static final String LOGBACK_LOGGER_CONTEXT_LISTENER_CLASS = "ch.qos.logback.classic.spi.LoggerContextListener";
+
+    /** Levels generation value that disables levels caching. */
+    static final int UNCACHEABLE_LEVELS = -1;
+    private static final int LEVELS_GENERATION_MASK = 0xFFFFFF;
+
+    /**
+     * The current levels generation, a strictly positive number that fits in
+     * 24 bits, or {@link #UNCACHEABLE_LEVELS} when levels cannot be cached.
+     */
+    private static volatile int levelsGeneration = UNCACHEABLE_LEVELS;
+
+    /**
+     * The turbo filters of the Logback context. Turbo filters might enable or
+     * disable levels dynamically, so that no level can be cached while there
+     * are some.
+     */
+    private static List<?> turboFilters;
+
+    /**
+     * Whether the Logback configuration is known to have some pattern that
+     * needs caller data. See {@link LoggerDelegate.LogbackDelegate}.
+     */
+    private static volatile boolean callerDataNeeded;
+
+    /**
+     * The class loader that has loaded this class, typically the System class
+     * loader.
+     */
+    private static final ClassLoader systemLoader = SeparateLogbackSupport.class.getClassLoader();
+
     static {
-        ClassLoader systemLoader = SeparateLogbackSupport.class.getClassLoader();
         if (null != systemLoader && null != systemLoader.getResource(SLF4J_IMPL_STATIC_LOGGER_BINDER_RSC)) {
             if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
                 report("SeparateLogbackSupport.<static init>(): detected SLF4J implementation on classpath. Using it ASAP.");
@@ -126,6 +226,186 @@ public class SeparateLogbackSupport {
         return LoggerFactory.getLogger(name);
     }
 
+    /**
+     * The generation of logger levels, to be compared with the generation of
+     * any cached level. A cached level is only valid while it has the same
+     * generation as the one returned here.
+     * <p>
+     * This is supposed to be checked at each {@code isXxxEnabled()} call, so
+     * it only implies one volatile read and, with Logback, one check for the
+     * presence of turbo filters.
+     *
+     * @return the current levels generation, or {@link #UNCACHEABLE_LEVELS}
+     *         when levels must not be cached.
+     */
+    static int levelsGeneration() {
+        int generation = levelsGeneration;
+        if (generation != UNCACHEABLE_LEVELS && !turboFilters.isEmpty()) {
+            return UNCACHEABLE_LEVELS;
+        }
+        return generation;
+    }
+
+    /**
+     * @return {@code true} if the Logback configuration is known to have some
+     *         pattern that needs caller data, or {@code false} otherwise.
+     */
+    static boolean callerDataNeeded() {
+        return callerDataNeeded;
+    }
+
+    /**
+     * Pre-parses the Logback configuration file, in order to tell whether some
+     * pattern needs caller data. This is done again each time the Logback
+     * context is reset, because the configuration file might have changed.
+     */
+    private static void detectCallerDataNeed() {
+        if (!CallerLocator.walksStackLazily()) {
+            return;
+        }
+        callerDataNeeded = CallerLocator.isNeededBy(
+                ProvisionalThreshold.readConfigFile(System.getProperty(JULI_LOGBACK_CONFIG_PROPERTY)));
+        if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            report("SeparateLogbackSupport.detectCallerDataNeed() = " + callerDataNeeded);
+        }
+    }
+
+    /**
+     * Invalidates all cached logger levels.
+     */
+    static void invalidateLevels() {
+        if (SLF4JDelegatingLog.diagnostics <= TRACE_INT) {
+            report("SeparateLogbackSupport.invalidateLevels()");
+        }
+        synchronized (SeparateLogbackSupport.class) {
+            if (levelsGeneration != UNCACHEABLE_LEVELS) {
+                levelsGeneration = nextLevelsGeneration();
+            }
+        }
+    }
+
+    /**
+     * Enables the caching of levels, invalidating any cached level.
+     *
+     * @param filters
+     *            the turbo filters that might enable or disable levels
+     *            dynamically, and thus prevent levels from being cached while
+     *            they are not empty
+     */
+    static void enableLevelsCaching(final List<?> filters) {
+        synchronized (SeparateLogbackSupport.class) {
+            turboFilters = filters;
+            levelsGeneration = nextLevelsGeneration();
+        }
+    }
+
+    /**
+     * Computes the next levels generation, skipping zero and wrapping around
+     * within 24 bits. Must be called with the class lock held.
+     */
+    private static int nextLevelsGeneration() {
+        int generation = levelsGeneration & LEVELS_GENERATION_MASK;
+        return generation == LEVELS_GENERATION_MASK ? 1 : generation + 1;
+    }
+
+    /**
+     * Disables the caching of levels.
+     */
+    static void disableLevelsCaching() {
+        levelsGeneration = UNCACHEABLE_LEVELS;
+    }
+
+    /**
+     * Registers the given MBean with the platform MBean server, unless some
+     * MBean is already registered with this name. Failures are only reported.
+     *
+     * @param objectName
+     *            the object name of the MBean
+     * @param mbean
+     *            the MBean implementation
+     * @param mbeanInterface
+     *            the management interface of the MBean
+     */
+    static <T> void registerMBean(final String objectName, final T mbean, final Class<T> mbeanInterface) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(mbean, mbeanInterface), name);
+            }
+        } catch (JMException | RuntimeException exc) {
+            report("WARN: could not register the [" + objectName + "] MBean", exc);
+        }
+    }
+
+    /**
+     * Registers a {@code LoggerContextListener} in the Logback logger context,
+     * that invalidates cached levels each time the context is reset or some
+     * level changes. Levels caching is only enabled when this registration
+     * succeeds.
+     * <p>
+     * Levels caching is not enabled when a Logback context selector, or the
+     * class loader context selector of the SLF4J bridge, is configured, because
+     * only the default logger context is watched.
+     */
+    private static void watchLogbackLevels(final boolean hasContextSelector) {
+        try {
+            ILoggerFactory loggerContext = LoggerFactory.getILoggerFactory();
+            if (hasContextSelector || !LOGBACK_LOGGER_CONTEXT_CLASS.equals(loggerContext.getClass().getName())) {
+                if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                    report("SeparateLogbackSupport.watchLogbackLevels(): not caching levels of [" + loggerContext
+                            + "]");
+                }
+                return;
+            }
+            Class<?> contextClass = loggerContext.getClass();
+            ClassLoader logbackLoader = contextClass.getClassLoader();
+            Class<?> listenerClass = logbackLoader.loadClass(LOGBACK_LOGGER_CONTEXT_LISTENER_CLASS);
+            Object listener = Proxy.newProxyInstance(logbackLoader, new Class<?>[] { listenerClass },
+                    new LevelsInvalidator());
+            List<?> filters = (List<?>) contextClass.getMethod("getTurboFilterList").invoke(loggerContext);
+            contextClass.getMethod("addListener", listenerClass).invoke(loggerContext, listener);
+
+            detectCallerDataNeed();
+            enableLevelsCaching(filters);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException | ClassCastException | IllegalStateException | SecurityException exc) {
+            report("WARN: cannot watch Logback levels. Disabling levels caching.", exc);
+        }
+    }
+
+    /**
+     * The {@code LoggerContextListener} implementation that invalidates cached
+     * levels.
+     */
+    private static class LevelsInvalidator implements InvocationHandler {
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+            case "isResetResistant":
+                return Boolean.TRUE;
+            case "onReset":
+                detectCallerDataNeed();
+                invalidateLevels();
+                return null;
+            case "onStart":
+            case "onStop":
+            case "onLevelChange":
+                invalidateLevels();
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return LevelsInvalidator.class.getName();
+            default:
+                return null;
+            }
+        }
+    }
+
     /**
      * Helper method for creating pre-bootstrap loggers. When the logging system
      * is bootstrapped, an actual logger is returned instead.
@@ -147,12 +427,15 @@ public class SeparateLogbackSupport {
                     loggerRef[0] = obtainLogger(name);
                 }
             });
-            return loggerRef[0];
+            // Another thread might have bootstrapped in the meantime, in which
+            // case the code above has not run
+            return loggerRef[0] != null ? loggerRef[0] : obtainLogger(name);
         }
 
         // Here we are in the case of deferred bootstrap
         bootstrapLoggingSystemIfPossible();
-        synchronized (SLF4JDelegatingLog.class) {
+        bootstrapLock.lock();
+        try {
             // The 'bootstrapMode' might change while we are waiting at the
             // entrance of this critical section, so we check it again here
             if (bootstrapped) {
@@ -163,30 +446,29 @@ public class SeparateLogbackSupport {
                 }
                 return new PreBootstrapLogger(facade, name);
             }
+        } finally {
+            bootstrapLock.unlock();
         }
     }
 
-    private static final AtomicInteger count = new AtomicInteger(0);
-    static final int ONCE_EVERY_FIVE_TIMES = 5;
-
     /**
      * Starts the bootstrapping process when the expected Catalina class loader
      * is detected.
      * <p>
-     * For performance reasons, the detection is run once every
-     * {@value #ONCE_EVERY_FIVE_TIMES} invocations.
+     * The detection is run at each invocation, which is cheap enough: it only
+     * compares the current thread context class loader with the system class
+     * loader. No state is shared between threads, so that concurrent
+     * pre-bootstrap log requests do not contend on anything.
      */
     static void bootstrapLoggingSystemIfPossible() {
-        if (count.incrementAndGet() % ONCE_EVERY_FIVE_TIMES != 0) {
+        ClassLoader catalinaLoader = currentThread().getContextClassLoader();
+        if (catalinaLoader == systemLoader || catalinaLoader == null || bootstrapStarted.get()) {
             return;
         }
         if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
-            report("SeparateLogbackSupport.doBootstrapIfPossible()");
+            report("SeparateLogbackSupport.bootstrapLoggingSystemIfPossible()");
         }
-        ClassLoader systemLoader = SeparateLogbackSupport.class.getClassLoader();
-        ClassLoader catalinaLoader = currentThread().getContextClassLoader();
-        if (systemLoader != catalinaLoader && catalinaLoader != null
-                && catalinaLoader instanceof java.net.URLClassLoader) {
+        if (catalinaLoader instanceof java.net.URLClassLoader) {
 
             if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
                 URL systemRsc = systemLoader.getResource(SLF4J_IMPL_STATIC_LOGGER_BINDER_RSC);
@@ -195,7 +477,71 @@ public class SeparateLogbackSupport {
                 report("in common loader [" + catalinaLoader + "]: " + catalinaRsc);
             }
 
-            doBootstrapRunning(new DeferredInit(catalinaLoader));
+            startDeferredBootstrap(catalinaLoader);
+        }
+    }
+
+    /**
+     * Starts the deferred bootstrap, unless it has already been started,
+     * either on the current thread, or on a background thread when the
+     * {@value #JULI_ASYNC_BOOTSTRAP_PROPERTY} system property is {@code true}.
+     */
+    private static void startDeferredBootstrap(final ClassLoader catalinaLoader) {
+        if (!bootstrapStarted.compareAndSet(false, true)) {
+            return;
+        }
+        DeferredBootstrap bootstrap = new DeferredBootstrap(catalinaLoader);
+        if (asyncBootstrap) {
+            Thread thread = new Thread(bootstrap, "juli-to-slf4j-bootstrap");
+            thread.setContextClassLoader(catalinaLoader);
+            bootstrapThread = thread;
+            thread.start();
+        } else {
+            bootstrap.run();
+        }
+    }
+
+    /**
+     * The deferred bootstrap. The {@link LoggerFactory} is bound and Logback is
+     * configured first, without holding the global lock unless some
+     * {@code juli.logback.*} system property is set. Then the
+     * {@link DeferredInit} runs with the global lock held.
+     * <p>
+     * When any of these two phases fails, the next pre-bootstrap log request
+     * starts the deferred bootstrap again.
+     * <p>
+     * This is supposed to run with the Catalina class loader as context class
+     * loader.
+     */
+    private static class DeferredBootstrap implements Runnable {
+        private ClassLoader catalinaLoader;
+
+        public DeferredBootstrap(final ClassLoader catalinaLoader) {
+            super();
+            this.catalinaLoader = catalinaLoader;
+        }
+
+        @Override
+        public void run() {
+            if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("SeparateLogbackSupport.DeferredBootstrap.run()");
+            }
+            try {
+                runWithJuliLogbackProperties(new Runnable() {
+                    @Override
+                    public void run() {
+                        LoggerFactory.getILoggerFactory();
+                    }
+                });
+                doBootstrapRunning(new DeferredInit(catalinaLoader));
+            } catch (RuntimeException | Error exc) {
+                // Let the next pre-bootstrap log request try again
+                bootstrapStarted.set(false);
+                if (currentThread() != bootstrapThread) {
+                    throw exc;
+                }
+                report("ERROR: unexpected issue while bootstrapping the logging system in the background", exc);
+            }
         }
     }
 
@@ -236,6 +582,10 @@ public class SeparateLogbackSupport {
                     if (SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
                         report("SeparateLogbackSupport.ShutdownHook.run()");
                     }
+                    if (!bootstrapStarted.compareAndSet(false, true)) {
+                        waitForBootstrapThread();
+                        return;
+                    }
                     ClassLoader catalinaLoader = currentThread().getContextClassLoader();
                     doBootstrapRunning(new DeferredInit(catalinaLoader));
                 }
@@ -245,45 +595,121 @@ public class SeparateLogbackSupport {
         }
     }
 
+    /**
+     * Waits for any background bootstrap to complete, so that its flushed
+     * pre-bootstrap events are not lost when the JVM shuts down.
+     */
+    private static void waitForBootstrapThread() {
+        Thread thread = bootstrapThread;
+        if (thread != null) {
+            try {
+                thread.join(BOOTSTRAP_THREAD_JOIN_TIMEOUT_MS);
+            } catch (InterruptedException exc) {
+                currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final long BOOTSTRAP_THREAD_JOIN_TIMEOUT_MS = 10000L;
+
     /**
      * Run the bootstrapping process, flushing early log events, binding the
      * existing {@link LoggerFactory} to the actual {@code StaticLoggerBinder},
-     * and replacing pre-bootstrap loggers with actual loggers.
+     * and replacing pre-bootstrap loggers with actual loggers. Finally, the
+     * {@link LogCounters} and {@link LatencyHistograms} MBeans are registered,
+     * when counting or timing is enabled, and the summaries of
+     * {@link RateLimits} and {@link DuplicateCollapser} are scheduled. Each
+     * of these phases is recorded as a {@link FlightRecorderEvents flight
+     * recorder event}.
      */
     private static void doBootstrapRunning(final Runnable actualInitCode) {
-        synchronized (SLF4JDelegatingLog.class) {
+        bootstrapLock.lock();
+        try {
             // The 'bootstrapMode' might change while we are waiting at the
             // entrance of this critical section, so we check it again here
             if (bootstrapped) {
                 return;
             }
 
-            String juliStatusListener = System.getProperty(JULI_LOGBACK_STATUS_LISTENER_PROPERTY);
-            String juliConfigFile = System.getProperty(JULI_LOGBACK_CONFIG_PROPERTY);
-            String juliCtxSelector = System.getProperty(JULI_LOGBACK_CTX_SELECTOR_PROPERTY);
-            String generalStatusListener = System.getProperty(LOGBACK_STATUS_LISTENER_PROPERTY);
-            String generalConfigFile = System.getProperty(LOGBACK_CONFIG_PROPERTY);
-            String generalCtxSelector = System.getProperty(LOGBACK_CTX_SELECTOR_PROPERTY);
-            try {
-                // We trick Logback into giving it a config file just for this
-                // default context to initialize. Otherwise JNDI logging
-                // contexts try to initialize this as their default context.
-                overrideSystemProperty(LOGBACK_STATUS_LISTENER_PROPERTY, juliStatusListener);
-                overrideSystemProperty(LOGBACK_CONFIG_PROPERTY, juliConfigFile);
-                overrideSystemProperty(LOGBACK_CTX_SELECTOR_PROPERTY, juliCtxSelector);
-
-                actualInitCode.run();
-
-                bootstrapped = true;
-            } finally {
-                restoreOverriddenSystemProperty(LOGBACK_STATUS_LISTENER_PROPERTY, juliStatusListener,
-                        generalStatusListener);
-                restoreOverriddenSystemProperty(LOGBACK_CONFIG_PROPERTY, juliConfigFile, generalConfigFile);
-                restoreOverriddenSystemProperty(LOGBACK_CTX_SELECTOR_PROPERTY, juliCtxSelector, generalCtxSelector);
+            Object event = FlightRecorderEvents.beginBootstrapPhase();
+            runWithJuliLogbackProperties(actualInitCode);
+            FlightRecorderEvents.endBootstrapPhase(event, "init");
+
+            bootstrapped = true;
+            event = FlightRecorderEvents.beginBootstrapPhase();
+            watchLogbackLevels(System.getProperty(JULI_LOGBACK_CTX_SELECTOR_PROPERTY) != null
+                    || System.getProperty(LOGBACK_CTX_SELECTOR_PROPERTY) != null
+                    || System.getProperty(JULI_CTX_SELECTOR_PROPERTY) != null);
+            FlightRecorderEvents.endBootstrapPhase(event, "levels");
+
+            event = FlightRecorderEvents.beginBootstrapPhase();
+            LogCounters.registerMBean();
+            LatencyHistograms.start();
+            RateLimits.start();
+            DuplicateCollapser.start();
+            FlightRecorderEvents.endBootstrapPhase(event, "management");
+        } finally {
+            bootstrapLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given code with the {@code juli.logback.*} system properties
+     * overriding their {@code logback.*} counterparts.
+     * <p>
+     * These global properties would also be seen by any web application that
+     * initializes its own Logback meanwhile. So when some of them are
+     * overridden, the global lock is held, and
+     * {@link #awaitJuliLogbackPropertiesRestored()} makes pre-bootstrap log
+     * requests wait for the properties to be restored.
+     */
+    private static void runWithJuliLogbackProperties(final Runnable code) {
+        String juliStatusListener = System.getProperty(JULI_LOGBACK_STATUS_LISTENER_PROPERTY);
+        String juliConfigFile = System.getProperty(JULI_LOGBACK_CONFIG_PROPERTY);
+        String juliCtxSelector = System.getProperty(JULI_LOGBACK_CTX_SELECTOR_PROPERTY);
+        String generalStatusListener = System.getProperty(LOGBACK_STATUS_LISTENER_PROPERTY);
+        String generalConfigFile = System.getProperty(LOGBACK_CONFIG_PROPERTY);
+        String generalCtxSelector = System.getProperty(LOGBACK_CTX_SELECTOR_PROPERTY);
+        boolean overriding = juliStatusListener != null || juliConfigFile != null || juliCtxSelector != null;
+        if (overriding) {
+            bootstrapLock.lock();
+            juliLogbackPropertiesInEffect = true;
+        }
+        try {
+            // We trick Logback into giving it a config file just for this
+            // default context to initialize. Otherwise JNDI logging
+            // contexts try to initialize this as their default context.
+            overrideSystemProperty(LOGBACK_STATUS_LISTENER_PROPERTY, juliStatusListener);
+            overrideSystemProperty(LOGBACK_CONFIG_PROPERTY, juliConfigFile);
+            overrideSystemProperty(LOGBACK_CTX_SELECTOR_PROPERTY, juliCtxSelector);
+
+            code.run();
+        } finally {
+            restoreOverriddenSystemProperty(LOGBACK_STATUS_LISTENER_PROPERTY, juliStatusListener,
+                    generalStatusListener);
+            restoreOverriddenSystemProperty(LOGBACK_CONFIG_PROPERTY, juliConfigFile, generalConfigFile);
+            restoreOverriddenSystemProperty(LOGBACK_CTX_SELECTOR_PROPERTY, juliCtxSelector, generalCtxSelector);
+            if (overriding) {
+                juliLogbackPropertiesInEffect = false;
+                bootstrapLock.unlock();
             }
         }
     }
 
+    /**
+     * Waits for the {@code juli.logback.*} system properties to stop
+     * overriding their {@code logback.*} counterparts, if they currently do.
+     * <p>
+     * This is called for each pre-bootstrap log request, which the Catalina
+     * threads issue before deploying any web application.
+     */
+    static void awaitJuliLogbackPropertiesRestored() {
+        if (juliLogbackPropertiesInEffect && !bootstrapLock.isHeldByCurrentThread()) {
+            bootstrapLock.lock();
+            bootstrapLock.unlock();
+        }
+    }
+
     /**
      * Helper method to set a system property only if the overriding value is
      * not {@code null}.
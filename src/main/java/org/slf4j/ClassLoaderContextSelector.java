@@ -0,0 +1,354 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.slf4j;
+
+import static java.lang.Thread.currentThread;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.helpers.Util;
+
+/**
+ * Selects a distinct {@link ILoggerFactory} per web application, based on the
+ * {@linkplain Thread#getContextClassLoader() context class loader} of the
+ * calling thread, without any JNDI lookup.
+ * <p>
+ * This selector is enabled by setting the {@value #SELECTOR_PROPERTY} system
+ * property to {@value #CLASS_LOADER_SELECTOR}. Then, when a context class
+ * loader is seen for the first time, its logger factory is resolved as
+ * follows:
+ * <ol>
+ * <li>When the class loader has its own
+ * {@code org.slf4j.impl.StaticLoggerBinder} class, i.e. when the web
+ * application bundles its own SLF4J binding (but not the SLF4J API), the
+ * logger factory of this binding is used.</li>
+ * <li>When the class loader has its own Logback configuration resource, named
+ * by the {@value #CONFIG_RESOURCE_PROPERTY} system property and defaulting to
+ * {@value #DEFAULT_CONFIG_RESOURCE}, a new Logback {@code LoggerContext} is
+ * created and configured with it.</li>
+ * <li>Otherwise, the default logger factory is used.</li>
+ * </ol>
+ * Resolved logger factories are cached in a concurrent map with weak keys, so
+ * that class loaders of undeployed web applications can be garbage collected.
+ * The logger factories of web application bindings are loaded by those very
+ * class loaders, so they are only weakly referenced too. They are kept alive
+ * by the {@code StaticLoggerBinder} singleton of the web application anyway.
+ * The Logback contexts that this selector has created are loaded by the
+ * default class loader, so they are referenced strongly, and they are stopped
+ * when their web application class loader is collected. The last selection is
+ * checked first by identity, which is the common case of one thread logging
+ * repeatedly for the same web application.
+ * <p>
+ * Loggers of the container itself, i.e. those named after the
+ * {@code org.apache.catalina}, {@code org.apache.tomcat} and
+ * {@code org.apache.coyote} packages, always get the default logger factory.
+ * Otherwise, a container class that creates its static logger while a web
+ * application class loader is the context class loader would be bound to the
+ * logging context of this web application, for the life of the JVM.
+ * <p>
+ * Diagnostics can be activated by lowering the
+ * {@link org.apache.juli.logging.impl.SLF4JDelegatingLog#diagnostics
+ * SLF4JDelegatingLog.diagnostics} level.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see SeparateSLF4JImplBridge
+ */
+final class ClassLoaderContextSelector {
+
+    static final String SELECTOR_PROPERTY = "juli.contextSelector";
+    static final String CLASS_LOADER_SELECTOR = "classLoader";
+    static final String CONFIG_RESOURCE_PROPERTY = "juli.contextSelector.configResource";
+    static final String DEFAULT_CONFIG_RESOURCE = "logback.xml";
+
+    private static final String SLF4J_IMPL_STATIC_LOGGER_BINDER_CLASS = "org.slf4j.impl.StaticLoggerBinder";
+    private static final String LOGBACK_LOGGER_CONTEXT_CLASS = "ch.qos.logback.classic.LoggerContext";
+    private static final String LOGBACK_CONTEXT_CLASS = "ch.qos.logback.core.Context";
+    private static final String LOGBACK_JORAN_CONFIGURATOR_CLASS = "ch.qos.logback.classic.joran.JoranConfigurator";
+
+    /** The logger name prefixes of the container, that are never selected. */
+    private static final String[] CONTAINER_LOGGER_PREFIXES = { "org.apache.catalina.", "org.apache.tomcat.",
+            "org.apache.coyote." };
+
+    /**
+     * @return {@code true} if this selector is enabled by the
+     *         {@value #SELECTOR_PROPERTY} system property.
+     */
+    static boolean isEnabled() {
+        return CLASS_LOADER_SELECTOR.equalsIgnoreCase(System.getProperty(SELECTOR_PROPERTY));
+    }
+
+    /** A weak reference to a class loader, compared by identity. */
+    private static final class LoaderKey extends WeakReference<ClassLoader> {
+        private final int hash;
+
+        LoaderKey(final ClassLoader loader, final ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LoaderKey)) {
+                return false;
+            }
+            ClassLoader loader = get();
+            return loader != null && loader == ((LoaderKey) obj).get();
+        }
+    }
+
+    /**
+     * A resolved logger factory, and whether this selector has created it.
+     * The logger factory of a web application binding is only weakly
+     * referenced, because its class pins the web application class loader.
+     */
+    private static final class Selection {
+        final LoaderKey key;
+        final ILoggerFactory factory;
+        final WeakReference<ILoggerFactory> boundFactory;
+        final boolean created;
+
+        Selection(final LoaderKey key, final ILoggerFactory factory, final boolean created) {
+            super();
+            this.key = key;
+            this.factory = factory;
+            this.boundFactory = null;
+            this.created = created;
+        }
+
+        Selection(final LoaderKey key, final ILoggerFactory boundFactory) {
+            super();
+            this.key = key;
+            this.factory = null;
+            this.boundFactory = new WeakReference<ILoggerFactory>(boundFactory);
+            this.created = false;
+        }
+
+        /**
+         * @return the selected logger factory, or {@code null} when the
+         *         factory of a web application binding has been collected.
+         */
+        ILoggerFactory factory() {
+            return boundFactory == null ? factory : boundFactory.get();
+        }
+    }
+
+    private final ClassLoader defaultLoader;
+    private final Class<?> defaultBinderClass;
+    private final String configResource = System.getProperty(CONFIG_RESOURCE_PROPERTY, DEFAULT_CONFIG_RESOURCE);
+
+    private final ConcurrentMap<LoaderKey, Selection> selections = new ConcurrentHashMap<LoaderKey, Selection>();
+    private final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<ClassLoader>();
+
+    /**
+     * Held while resolving, which may configure a new Logback context. This
+     * is not a monitor, so that virtual threads do not pin their carrier
+     * thread while waiting for it.
+     */
+    private final ReentrantLock resolutionLock = new ReentrantLock();
+
+    /** The last selection, for the identity fast path. */
+    private volatile Selection lastSelection;
+
+    /**
+     * @param defaultLoader
+     *            the class loader of the default SLF4J binding, typically the
+     *            Catalina class loader
+     * @param defaultBinderClass
+     *            the {@code StaticLoggerBinder} class of the default binding
+     */
+    ClassLoaderContextSelector(final ClassLoader defaultLoader, final Class<?> defaultBinderClass) {
+        super();
+        this.defaultLoader = defaultLoader;
+        this.defaultBinderClass = defaultBinderClass;
+    }
+
+    /**
+     * @param defaultFactory
+     *            the logger factory of the default binding
+     * @param loggerName
+     *            the name of the logger that the factory is selected for, or
+     *            {@code null} when unknown
+     * @return the logger factory for the context class loader of the current
+     *         thread
+     */
+    ILoggerFactory select(final ILoggerFactory defaultFactory, final String loggerName) {
+        ClassLoader loader = currentThread().getContextClassLoader();
+        if (loader == null || loader == defaultLoader || isContainerLogger(loggerName)) {
+            return defaultFactory;
+        }
+        Selection last = lastSelection;
+        if (last != null && last.key.get() == loader) {
+            ILoggerFactory factory = last.factory();
+            if (factory != null) {
+                return factory;
+            }
+        }
+        return slowSelect(loader, defaultFactory);
+    }
+
+    /**
+     * @return {@code true} if the given logger name belongs to the container,
+     *         or {@code false} otherwise.
+     */
+    static boolean isContainerLogger(final String loggerName) {
+        if (loggerName != null) {
+            for (String prefix : CONTAINER_LOGGER_PREFIXES) {
+                if (loggerName.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private ILoggerFactory slowSelect(final ClassLoader loader, final ILoggerFactory defaultFactory) {
+        expungeCollectedLoaders();
+        LoaderKey key = new LoaderKey(loader, collectedLoaders);
+        Selection selection = selections.get(key);
+        ILoggerFactory factory = selection == null ? null : selection.factory();
+        if (factory == null) {
+            resolutionLock.lock();
+            try {
+                selection = selections.get(key);
+                factory = selection == null ? null : selection.factory();
+                if (factory == null) {
+                    selection = resolve(key, loader, defaultFactory);
+                    factory = selection.factory();
+                    selections.put(key, selection);
+                }
+            } finally {
+                resolutionLock.unlock();
+            }
+        }
+        lastSelection = selection;
+        return factory;
+    }
+
+    /**
+     * Resolves the logger factory for a class loader that is seen for the
+     * first time.
+     */
+    private Selection resolve(final LoaderKey key, final ClassLoader loader, final ILoggerFactory defaultFactory) {
+        try {
+            Class<?> binderClass = loader.loadClass(SLF4J_IMPL_STATIC_LOGGER_BINDER_CLASS);
+            if (binderClass != defaultBinderClass) {
+                Object binder = binderClass.getMethod("getSingleton").invoke(null);
+                Object factory = binderClass.getMethod("getLoggerFactory").invoke(binder);
+                if (factory instanceof ILoggerFactory) {
+                    reportSelection(loader, "its own SLF4J binding");
+                    return new Selection(key, (ILoggerFactory) factory);
+                }
+                Util.report("WARN: the SLF4J binding of [" + loader + "] is not compatible with"
+                        + " the SLF4J API of Tomcat. Please remove the SLF4J API from the web application.");
+            }
+        } catch (ClassNotFoundException exc) {
+            // No SLF4J binding at all
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException exc) {
+            Util.report("WARN: could not use the SLF4J binding of [" + loader + "]", exc);
+        }
+
+        URL config = loader.getResource(configResource);
+        if (config != null && !config.equals(defaultLoader.getResource(configResource))) {
+            try {
+                ILoggerFactory factory = newLogbackContext(String.valueOf(loader), config);
+                reportSelection(loader, "a new Logback context configured with [" + config + "]");
+                return new Selection(key, factory, true);
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException exc) {
+                Util.report("WARN: could not create a Logback context for [" + loader + "]", exc);
+            }
+        }
+        return new Selection(key, defaultFactory, false);
+    }
+
+    private static void reportSelection(final ClassLoader loader, final String what) {
+        if (org.apache.juli.logging.impl.SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+            Util.report("ClassLoaderContextSelector selected " + what + " for [" + loader + "]");
+        }
+    }
+
+    /**
+     * Creates and configures a new Logback {@code LoggerContext}, using
+     * introspection.
+     */
+    private ILoggerFactory newLogbackContext(final String name, final URL config)
+            throws ReflectiveOperationException {
+        Class<?> loggerContextClass = defaultLoader.loadClass(LOGBACK_LOGGER_CONTEXT_CLASS);
+        Class<?> contextClass = defaultLoader.loadClass(LOGBACK_CONTEXT_CLASS);
+        Class<?> configuratorClass = defaultLoader.loadClass(LOGBACK_JORAN_CONFIGURATOR_CLASS);
+
+        Object context = loggerContextClass.getConstructor().newInstance();
+        loggerContextClass.getMethod("setName", String.class).invoke(context, name);
+        Object configurator = configuratorClass.getConstructor().newInstance();
+        configuratorClass.getMethod("setContext", contextClass).invoke(configurator, context);
+        configuratorClass.getMethod("doConfigure", URL.class).invoke(configurator, config);
+        loggerContextClass.getMethod("start").invoke(context);
+        return (ILoggerFactory) context;
+    }
+
+    /**
+     * Drops the selections of garbage collected class loaders, and stops the
+     * Logback contexts that were created for them.
+     */
+    void expungeCollectedLoaders() {
+        for (Reference<? extends ClassLoader> ref; (ref = collectedLoaders.poll()) != null;) {
+            Selection selection = selections.remove(ref);
+            if (selection == null) {
+                continue;
+            }
+            if (lastSelection == selection) {
+                lastSelection = null;
+            }
+            if (selection.created) {
+                stop(selection.factory);
+            }
+        }
+    }
+
+    /**
+     * @return the number of class loaders that have a cached selection.
+     */
+    int selectionCount() {
+        return selections.size();
+    }
+
+    private static void stop(final ILoggerFactory factory) {
+        try {
+            Method stop = factory.getClass().getMethod("stop");
+            stop.invoke(factory);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException exc) {
+            Util.report("WARN: could not stop the logging context [" + factory + "]", exc);
+        }
+    }
+}
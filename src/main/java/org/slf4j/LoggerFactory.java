@@ -44,6 +44,7 @@ import static java.lang.Thread.currentThread;
 import static org.slf4j.SeparateSLF4JImplBridge.doBootstrap;
 import static org.slf4j.SeparateSLF4JImplBridge.getLoggerFactory;
 import static org.slf4j.SeparateSLF4JImplBridge.getLoggerFactoryClassStr;
+import static org.slf4j.SeparateSLF4JImplBridge.invalidateLoggerFactory;
 import static org.slf4j.SeparateSLF4JImplBridge.requestedApiVersion;
 import static org.slf4j.helpers.Util.report;
 import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
@@ -55,7 +56,12 @@ import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.helpers.NOPLoggerFactory;
 import org.slf4j.helpers.SubstituteLogger;
@@ -97,6 +103,15 @@ import org.slf4j.helpers.Util;
  * <p>
  * Which is unfortunately incorrect: the {@link ILoggerFactory} instance is
  * bound at <em>runtime</em>.
+ * <p>
+ * Since version 1.2.0, the initialization is thread-safe and lock-free. The
+ * initialization state is an atomic word, and the one thread that moves it
+ * from {@code UNINITIALIZED} to {@code ONGOING_INITIALIZATION} with a
+ * compare-and-set is the one that initializes. Other threads park until the
+ * initialization is over, instead of getting substitute loggers that would
+ * not log. Only re-entrant calls from the initializing thread get substitute
+ * loggers, as before. Once initialized, {@link #getILoggerFactory()} only
+ * implies one volatile read of the state.
  *
  * @since 1.1.0
  *
@@ -126,8 +141,21 @@ public final class LoggerFactory {
     static final int SUCCESSFUL_INITIALIZATION = 3;
     static final int NOP_FALLBACK_INITIALIZATION = 4;
 
-    static int INITIALIZATION_STATE = UNINITIALIZED;
-    static SubstituteLoggerFactory TEMP_FACTORY = new SubstituteLoggerFactory();
+    static final AtomicInteger INITIALIZATION_STATE = new AtomicInteger(UNINITIALIZED);
+    static volatile SubstituteLoggerFactory TEMP_FACTORY = new SubstituteLoggerFactory();
+
+    /**
+     * The maximum time that threads wait for another thread to initialize,
+     * before falling back to substitute loggers. This prevents any dead-lock
+     * when the initialization would wait for some other thread that logs.
+     */
+    static final long INITIALIZATION_WAIT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** The thread that runs the ongoing initialization, if any. */
+    private static volatile Thread initializingThread;
+
+    /** The threads that wait for the ongoing initialization to complete. */
+    private static final Queue<Thread> initializationWaiters = new ConcurrentLinkedQueue<Thread>();
     static NOPLoggerFactory NOP_FALLBACK_FACTORY = new NOPLoggerFactory();
 
     // Support for detecting mismatched logger names.
@@ -159,14 +187,54 @@ public final class LoggerFactory {
      * You are strongly discouraged from calling this method in production code.
      */
     static void reset() {
-        INITIALIZATION_STATE = UNINITIALIZED;
         TEMP_FACTORY = new SubstituteLoggerFactory();
+        invalidateLoggerFactory();
+        INITIALIZATION_STATE.set(UNINITIALIZED);
     }
 
     private final static void performInitialization() {
-        bind();
-        if (INITIALIZATION_STATE == SUCCESSFUL_INITIALIZATION) {
-            versionSanityCheck();
+        initializingThread = currentThread();
+        try {
+            bind();
+            if (INITIALIZATION_STATE.get() == SUCCESSFUL_INITIALIZATION) {
+                versionSanityCheck();
+            }
+        } finally {
+            // Any unexpected error that leaves the state as ongoing is a failure
+            INITIALIZATION_STATE.compareAndSet(ONGOING_INITIALIZATION, FAILED_INITIALIZATION);
+            initializingThread = null;
+            for (Thread waiter; (waiter = initializationWaiters.poll()) != null;) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Parks the current thread until the ongoing initialization completes, or
+     * until it takes too long.
+     *
+     * @return the initialization state after waiting
+     */
+    private static int awaitInitialization() {
+        Thread current = currentThread();
+        long deadline = System.nanoTime() + INITIALIZATION_WAIT_TIMEOUT_NANOS;
+        initializationWaiters.add(current);
+        try {
+            int state;
+            // The state is checked after registering as a waiter, so that no
+            // wake-up can be missed
+            while ((state = INITIALIZATION_STATE.get()) == ONGOING_INITIALIZATION) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    Util.report("Timed out while waiting for the initialization of the logging system."
+                            + " Using substitute loggers.");
+                    break;
+                }
+                LockSupport.parkNanos(LoggerFactory.class, remaining);
+            }
+            return state;
+        } finally {
+            initializationWaiters.remove(current);
         }
     }
 
@@ -191,13 +259,13 @@ public final class LoggerFactory {
             // the next line does the binding
             doBootstrap(currentThread().getContextClassLoader());
 
-            INITIALIZATION_STATE = SUCCESSFUL_INITIALIZATION;
+            INITIALIZATION_STATE.set(SUCCESSFUL_INITIALIZATION);
             reportActualBinding(staticLoggerBinderPathSet);
             fixSubstitutedLoggers();
         } catch (NoClassDefFoundError ncde) {
             String msg = ncde.getMessage();
             if (messageContainsOrgSlf4jImplStaticLoggerBinder(msg)) {
-                INITIALIZATION_STATE = NOP_FALLBACK_INITIALIZATION;
+                INITIALIZATION_STATE.set(NOP_FALLBACK_INITIALIZATION);
                 Util.report("Failed to load class \"org.slf4j.impl.StaticLoggerBinder\".");
                 Util.report("Defaulting to no-operation (NOP) logger implementation");
                 Util.report("See " + NO_STATICLOGGERBINDER_URL + " for further details.");
@@ -208,7 +276,7 @@ public final class LoggerFactory {
         } catch (java.lang.NoSuchMethodError nsme) {
             String msg = nsme.getMessage();
             if (msg != null && msg.indexOf("org.slf4j.impl.StaticLoggerBinder.getSingleton()") != -1) {
-                INITIALIZATION_STATE = FAILED_INITIALIZATION;
+                INITIALIZATION_STATE.set(FAILED_INITIALIZATION);
                 Util.report("slf4j-api 1.6.x (or later) is incompatible with this binding.");
                 Util.report("Your binding is version 1.5.5 or earlier.");
                 Util.report("Upgrade your binding to version 1.6.x.");
@@ -221,7 +289,7 @@ public final class LoggerFactory {
     }
 
     static void failedBinding(final Throwable t) {
-        INITIALIZATION_STATE = FAILED_INITIALIZATION;
+        INITIALIZATION_STATE.set(FAILED_INITIALIZATION);
         Util.report("Failed to instantiate SLF4J LoggerFactory", t);
     }
 
@@ -353,7 +421,10 @@ public final class LoggerFactory {
      * @return logger
      */
     public static Logger getLogger(final String name) {
-        ILoggerFactory iLoggerFactory = getILoggerFactory();
+        // The logger name matters to the class loader context selector
+        ILoggerFactory iLoggerFactory = INITIALIZATION_STATE.get() == SUCCESSFUL_INITIALIZATION
+                ? getLoggerFactory(name)
+                : getILoggerFactory();
         return iLoggerFactory.getLogger(name);
     }
 
@@ -403,22 +474,38 @@ public final class LoggerFactory {
      * @return the ILoggerFactory instance in use
      */
     public static ILoggerFactory getILoggerFactory() {
-        if (INITIALIZATION_STATE == UNINITIALIZED) {
-            INITIALIZATION_STATE = ONGOING_INITIALIZATION;
-            performInitialization();
-        }
-        switch (INITIALIZATION_STATE) {
-        case SUCCESSFUL_INITIALIZATION:
+        int state = INITIALIZATION_STATE.get();
+        if (state == SUCCESSFUL_INITIALIZATION) {
             return getLoggerFactory();
-        case NOP_FALLBACK_INITIALIZATION:
-            return NOP_FALLBACK_FACTORY;
-        case FAILED_INITIALIZATION:
-            throw new IllegalStateException(UNSUCCESSFUL_INIT_MSG);
-        case ONGOING_INITIALIZATION:
-            // support re-entrant behavior.
-            // See also http://bugzilla.slf4j.org/show_bug.cgi?id=106
-            return TEMP_FACTORY;
         }
-        throw new IllegalStateException("Unreachable code");
+        for (;;) {
+            switch (state) {
+            case SUCCESSFUL_INITIALIZATION:
+                return getLoggerFactory();
+            case NOP_FALLBACK_INITIALIZATION:
+                return NOP_FALLBACK_FACTORY;
+            case FAILED_INITIALIZATION:
+                throw new IllegalStateException(UNSUCCESSFUL_INIT_MSG);
+            case UNINITIALIZED:
+                if (INITIALIZATION_STATE.compareAndSet(UNINITIALIZED, ONGOING_INITIALIZATION)) {
+                    performInitialization();
+                }
+                break;
+            case ONGOING_INITIALIZATION:
+                if (initializingThread == currentThread()) {
+                    // support re-entrant behavior.
+                    // See also http://bugzilla.slf4j.org/show_bug.cgi?id=106
+                    return TEMP_FACTORY;
+                }
+                if (awaitInitialization() == ONGOING_INITIALIZATION) {
+                    // timed out
+                    return TEMP_FACTORY;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unreachable code");
+            }
+            state = INITIALIZATION_STATE.get();
+        }
     }
 }
@@ -19,6 +19,9 @@ package org.slf4j;
 import static org.slf4j.helpers.Util.report;
 import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -33,7 +36,21 @@ import java.lang.reflect.Method;
  * valid for any other SLF4J backend.
  * <p>
  * This implementation uses introspection to access the separated
- * {@code org.slf4j.impl.StaticLoggerBinder} class.
+ * {@code org.slf4j.impl.StaticLoggerBinder} class. Since version 1.2.0, the
+ * reflective handles are converted into {@link MethodHandle}s, that avoid the
+ * access checks and the argument boxing of {@link Method#invoke}. When method
+ * handles cannot be obtained, e.g. with some restrictive security manager,
+ * plain reflection is used as a fallback.
+ * <p>
+ * Once resolved, the {@link ILoggerFactory} of the separated implementation is
+ * cached, so that {@link org.slf4j.LoggerFactory#getLogger(String)} does not
+ * run two reflective invocations each time a logger is created. The cache is
+ * disabled when a Logback context selector is configured, because the logger
+ * factory is then supposed to vary from one call to another.
+ * <p>
+ * Since version 1.2.0, an optional {@link ClassLoaderContextSelector} can
+ * select a distinct logger factory per web application. It then applies on top
+ * of the cached default logger factory.
  * <p>
  * Diagnostics can be activated by lowering the
  * {@link org.apache.juli.logging.impl.SLF4JDelegatingLog#diagnostics
@@ -52,10 +69,28 @@ public class SeparateSLF4JImplBridge {
     private static final String GET_LOGGER_FACTORY_METHOD = "getLoggerFactory";
     private static final String GET_LOGGER_FACTORY_CLASS_STR_METHOD = "getLoggerFactoryClassStr";
 
-    private static Field requestedApiVersionField;
-    private static Method getSingletonMethod;
-    private static Method getLoggerFactoryMethod;
-    private static Method getLoggerFactoryClassStrMethod;
+    private static final String LOGBACK_CTX_SELECTOR_PROPERTY = "logback.ContextSelector";
+
+    /** The accessor to the separated {@code StaticLoggerBinder} class. */
+    private static volatile BinderAccessor binderAccessor;
+
+    /**
+     * Whether the resolved {@link ILoggerFactory} can be cached. This is
+     * {@code false} when a context selector is configured.
+     */
+    private static boolean loggerFactoryCacheable;
+
+    /**
+     * The cached logger factory, or {@code null} when not yet resolved or when
+     * the cache has been {@linkplain #invalidateLoggerFactory() invalidated}.
+     */
+    private static volatile ILoggerFactory loggerFactory;
+
+    /**
+     * The selector of per web application logger factories, or {@code null}
+     * when not enabled.
+     */
+    private static volatile ClassLoaderContextSelector contextSelector;
 
     /**
      * Loads an {@code org.slf4j.impl.StaticLoggerBinder} class using the given
@@ -73,11 +108,11 @@ public class SeparateSLF4JImplBridge {
             report("SeparateSLF4JImplBridge.doBootstrap('" + slf4jImplLoader + "')");
         }
 
-        Class<?> staticLoggerBinder;
         Field requestedApiVersion;
         Method getSingleton;
         Method getLoggerFactory;
         Method getLoggerFactoryClassStr;
+        Class<?> staticLoggerBinder;
         try {
             staticLoggerBinder = slf4jImplLoader.loadClass(SLF4J_IMPL_STATIC_LOGGER_BINDER_CLASS);
             requestedApiVersion = staticLoggerBinder.getDeclaredField(REQUESTED_API_VERSION_FIELD);
@@ -87,10 +122,35 @@ public class SeparateSLF4JImplBridge {
         } catch (ClassNotFoundException | NoSuchFieldException | NoSuchMethodException | SecurityException exc) {
             throw new RuntimeException("unexpected error while bootstrapping the actual StaticLoggerBinder", exc);
         }
-        requestedApiVersionField = requestedApiVersion;
-        getSingletonMethod = getSingleton;
-        getLoggerFactoryMethod = getLoggerFactory;
-        getLoggerFactoryClassStrMethod = getLoggerFactoryClassStr;
+        BinderAccessor accessor;
+        try {
+            accessor = new MethodHandleAccessor(requestedApiVersion, getSingleton, getLoggerFactory,
+                    getLoggerFactoryClassStr);
+        } catch (IllegalAccessException | SecurityException exc) {
+            if (org.apache.juli.logging.impl.SLF4JDelegatingLog.diagnostics <= DEBUG_INT) {
+                report("SeparateSLF4JImplBridge falling back to reflection: " + exc);
+            }
+            accessor = new ReflectiveAccessor(requestedApiVersion, getSingleton, getLoggerFactory,
+                    getLoggerFactoryClassStr);
+        }
+        binderAccessor = accessor;
+
+        loggerFactoryCacheable = System.getProperty(LOGBACK_CTX_SELECTOR_PROPERTY) == null;
+        contextSelector = ClassLoaderContextSelector.isEnabled()
+                ? new ClassLoaderContextSelector(slf4jImplLoader, staticLoggerBinder)
+                : null;
+        invalidateLoggerFactory();
+    }
+
+    /**
+     * Drops the cached {@link ILoggerFactory}, so that the next call to
+     * {@link #getLoggerFactory()} resolves it again from the separated
+     * {@code StaticLoggerBinder}.
+     * <p>
+     * This is typically called when {@link org.slf4j.LoggerFactory} is reset.
+     */
+    static void invalidateLoggerFactory() {
+        loggerFactory = null;
     }
 
     /**
@@ -101,11 +161,7 @@ public class SeparateSLF4JImplBridge {
      *         against.
      */
     static String requestedApiVersion() {
-        try {
-            return (String) requestedApiVersionField.get(null);
-        } catch (IllegalArgumentException | IllegalAccessException exc) {
-            throw new RuntimeException(exc);
-        }
+        return binderAccessor.requestedApiVersion();
     }
 
     /**
@@ -116,27 +172,49 @@ public class SeparateSLF4JImplBridge {
      *         separated SLF4J implementation.
      */
     static Object getStaticLoggerBinder() {
-        try {
-            return getSingletonMethod.invoke(null);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
-            throw new RuntimeException(exc);
-        }
+        return binderAccessor.getSingleton();
     }
 
     /**
-     * Runs the {@code StaticLoggerBinder.getSingleton().getLoggerFactory()}
-     * method of the separated SLF4J implementation.
+     * Returns the {@link ILoggerFactory} of the separated SLF4J
+     * implementation.
+     * <p>
+     * After the first call, the logger factory is returned from cache, unless
+     * caching is disabled. When the {@link ClassLoaderContextSelector} is
+     * enabled, it selects the logger factory of the calling web application.
      *
      * @return the instance of {@link ILoggerFactory} that
      *         {@link org.slf4j.LoggerFactory} class should bind to.
      * @see org.slf4j.spi.LoggerFactoryBinder#getLoggerFactory()
      */
     static ILoggerFactory getLoggerFactory() {
-        try {
-            return (ILoggerFactory) getLoggerFactoryMethod.invoke(getStaticLoggerBinder());
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
-            throw new RuntimeException(exc);
+        return getLoggerFactory(null);
+    }
+
+    /**
+     * Returns the {@link ILoggerFactory} of the separated SLF4J
+     * implementation, for a logger with the given name.
+     * <p>
+     * This differs from {@link #getLoggerFactory()} only when the
+     * {@link ClassLoaderContextSelector} is enabled, that never selects the
+     * logger factory of a web application for the loggers of the container.
+     *
+     * @param loggerName
+     *            the name of the logger to create, or {@code null} when
+     *            unknown
+     * @return the instance of {@link ILoggerFactory} that should create the
+     *         logger.
+     */
+    static ILoggerFactory getLoggerFactory(final String loggerName) {
+        ILoggerFactory factory = loggerFactory;
+        if (factory == null) {
+            factory = binderAccessor.getLoggerFactory();
+            if (loggerFactoryCacheable) {
+                loggerFactory = factory;
+            }
         }
+        ClassLoaderContextSelector selector = contextSelector;
+        return selector == null ? factory : selector.select(factory, loggerName);
     }
 
     /**
@@ -147,11 +225,162 @@ public class SeparateSLF4JImplBridge {
      * @return the class name of the intended {@link ILoggerFactory} instance.
      * @see org.slf4j.spi.LoggerFactoryBinder#getLoggerFactoryClassStr()
      */
-    static ILoggerFactory getLoggerFactoryClassStr() {
-        try {
-            return (ILoggerFactory) getLoggerFactoryClassStrMethod.invoke(getStaticLoggerBinder());
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
-            throw new RuntimeException(exc);
+    static String getLoggerFactoryClassStr() {
+        return binderAccessor.getLoggerFactoryClassStr();
+    }
+
+    /**
+     * Accesses the members of the separated {@code StaticLoggerBinder}.
+     */
+    abstract static class BinderAccessor {
+
+        abstract String requestedApiVersion();
+
+        abstract Object getSingleton();
+
+        /**
+         * @return the result of
+         *         {@code StaticLoggerBinder.getSingleton().getLoggerFactory()}
+         */
+        abstract ILoggerFactory getLoggerFactory();
+
+        /**
+         * @return the result of
+         *         {@code StaticLoggerBinder.getSingleton().getLoggerFactoryClassStr()}
+         */
+        abstract String getLoggerFactoryClassStr();
+    }
+
+    /**
+     * Accesses the separated {@code StaticLoggerBinder} through method
+     * handles, whose types are adapted once, so that they can be invoked
+     * exactly without any boxing or casting.
+     */
+    static final class MethodHandleAccessor extends BinderAccessor {
+
+        private final MethodHandle requestedApiVersion;
+        private final MethodHandle getSingleton;
+        private final MethodHandle getLoggerFactory;
+        private final MethodHandle getLoggerFactoryClassStr;
+
+        MethodHandleAccessor(final Field requestedApiVersion, final Method getSingleton,
+                final Method getLoggerFactory, final Method getLoggerFactoryClassStr) throws IllegalAccessException {
+            super();
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle singleton = lookup.unreflect(getSingleton).asType(MethodType.methodType(Object.class));
+            this.requestedApiVersion = lookup.unreflectGetter(requestedApiVersion)
+                    .asType(MethodType.methodType(String.class));
+            this.getSingleton = singleton;
+            // StaticLoggerBinder.getSingleton().getXxx() as one single handle
+            this.getLoggerFactory = MethodHandles.filterReturnValue(singleton,
+                    lookup.unreflect(getLoggerFactory).asType(
+                            MethodType.methodType(ILoggerFactory.class, Object.class)));
+            this.getLoggerFactoryClassStr = MethodHandles.filterReturnValue(singleton,
+                    lookup.unreflect(getLoggerFactoryClassStr).asType(
+                            MethodType.methodType(String.class, Object.class)));
+        }
+
+        @Override
+        String requestedApiVersion() {
+            try {
+                return (String) requestedApiVersion.invokeExact();
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+
+        @Override
+        Object getSingleton() {
+            try {
+                return (Object) getSingleton.invokeExact();
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+
+        @Override
+        ILoggerFactory getLoggerFactory() {
+            try {
+                return (ILoggerFactory) getLoggerFactory.invokeExact();
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+
+        @Override
+        String getLoggerFactoryClassStr() {
+            try {
+                return (String) getLoggerFactoryClassStr.invokeExact();
+            } catch (Throwable exc) {
+                throw propagate(exc);
+            }
+        }
+
+        private static RuntimeException propagate(final Throwable exc) {
+            if (exc instanceof RuntimeException) {
+                return (RuntimeException) exc;
+            }
+            if (exc instanceof Error) {
+                throw (Error) exc;
+            }
+            return new RuntimeException(exc);
+        }
+    }
+
+    /**
+     * Accesses the separated {@code StaticLoggerBinder} through plain
+     * reflection.
+     */
+    static final class ReflectiveAccessor extends BinderAccessor {
+
+        private final Field requestedApiVersion;
+        private final Method getSingleton;
+        private final Method getLoggerFactory;
+        private final Method getLoggerFactoryClassStr;
+
+        ReflectiveAccessor(final Field requestedApiVersion, final Method getSingleton, final Method getLoggerFactory,
+                final Method getLoggerFactoryClassStr) {
+            super();
+            this.requestedApiVersion = requestedApiVersion;
+            this.getSingleton = getSingleton;
+            this.getLoggerFactory = getLoggerFactory;
+            this.getLoggerFactoryClassStr = getLoggerFactoryClassStr;
+        }
+
+        @Override
+        String requestedApiVersion() {
+            try {
+                return (String) requestedApiVersion.get(null);
+            } catch (IllegalArgumentException | IllegalAccessException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+
+        @Override
+        Object getSingleton() {
+            try {
+                return getSingleton.invoke(null);
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+
+        @Override
+        ILoggerFactory getLoggerFactory() {
+            try {
+                return (ILoggerFactory) getLoggerFactory.invoke(getSingleton());
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
+                throw new RuntimeException(exc);
+            }
+        }
+
+        @Override
+        String getLoggerFactoryClassStr() {
+            try {
+                return (String) getLoggerFactoryClassStr.invoke(getSingleton());
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException exc) {
+                throw new RuntimeException(exc);
+            }
         }
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Emits Java Flight Recorder events for the bootstrap phases, the replay of
+ * pre-bootstrap events, the swap of pre-bootstrap loggers, and slow logging
+ * calls.
+ * <p>
+ * Each event is started by a {@code begin*()} method, that returns an opaque
+ * event, or {@code null} when the event is not recorded. The event is then
+ * given to the matching {@code end*()} method, that accepts {@code null}.
+ * <p>
+ * This Java 11 implementation emits events in the {@code JULI-to-SLF4J}
+ * category, unless the {@code jdk.jfr} module is missing. Slow logging calls
+ * are only recorded above a threshold of 20 ms by default, like file I/O
+ * events, that can be changed in the recording settings.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ */
+final class FlightRecorderEvents {
+
+    private static final String[] LEVEL_NAMES = { "TRACE", "DEBUG", "INFO", "WARN", "ERROR" };
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private FlightRecorderEvents() {
+        super();
+    }
+
+    /**
+     * This is a method, and not a constant, so that the value of the actual
+     * implementation is not inlined by the compiler in other classes.
+     *
+     * @return {@code true} when the {@code jdk.jfr} module is available, or
+     *         {@code false} otherwise.
+     */
+    static boolean available() {
+        return AVAILABLE;
+    }
+
+    private static <E extends Event> E begin(final E event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static Object beginBootstrapPhase() {
+        return AVAILABLE ? begin(new BootstrapPhase()) : null;
+    }
+
+    static void endBootstrapPhase(final Object event, final String phase) {
+        if (event != null) {
+            BootstrapPhase bootstrapPhase = (BootstrapPhase) event;
+            bootstrapPhase.phase = phase;
+            bootstrapPhase.commit();
+        }
+    }
+
+    static Object beginReplay() {
+        return AVAILABLE ? begin(new PreBootstrapReplay()) : null;
+    }
+
+    static void endReplay(final Object event, final int eventCount, final int loggerCount) {
+        if (event != null) {
+            PreBootstrapReplay replay = (PreBootstrapReplay) event;
+            replay.eventCount = eventCount;
+            replay.loggerCount = loggerCount;
+            replay.commit();
+        }
+    }
+
+    static Object beginLoggerSwap() {
+        return AVAILABLE ? begin(new LoggerSwap()) : null;
+    }
+
+    static void endLoggerSwap(final Object event, final int loggerCount) {
+        if (event != null) {
+            LoggerSwap swap = (LoggerSwap) event;
+            swap.loggerCount = loggerCount;
+            swap.commit();
+        }
+    }
+
+    static Object beginLogCall() {
+        return AVAILABLE ? begin(new SlowLogCall()) : null;
+    }
+
+    static void endLogCall(final Object event, final String loggerName, final int level) {
+        if (event != null) {
+            SlowLogCall call = (SlowLogCall) event;
+            call.end();
+            if (call.shouldCommit()) {
+                call.loggerName = loggerName;
+                call.level = LEVEL_NAMES[(level - TRACE_INT) / (DEBUG_INT - TRACE_INT)];
+                call.commit();
+            }
+        }
+    }
+
+    @Name("org.apache.juli.logging.BootstrapPhase")
+    @Label("Bootstrap Phase")
+    @Description("A phase of the bootstrap of the logging system")
+    @Category({ "Tomcat", "JULI-to-SLF4J" })
+    static final class BootstrapPhase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("org.apache.juli.logging.PreBootstrapReplay")
+    @Label("Pre-Bootstrap Replay")
+    @Description("The replay of the logging events that were stored before bootstrap")
+    @Category({ "Tomcat", "JULI-to-SLF4J" })
+    static final class PreBootstrapReplay extends Event {
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Logger Count")
+        int loggerCount;
+    }
+
+    @Name("org.apache.juli.logging.LoggerSwap")
+    @Label("Logger Swap")
+    @Description("The replacement of pre-bootstrap loggers by actual loggers")
+    @Category({ "Tomcat", "JULI-to-SLF4J" })
+    static final class LoggerSwap extends Event {
+        @Label("Logger Count")
+        int loggerCount;
+    }
+
+    @Name("org.apache.juli.logging.SlowLogCall")
+    @Label("Slow Log Call")
+    @Description("A logging call that has spent a long time in the logging backend")
+    @Category({ "Tomcat", "JULI-to-SLF4J" })
+    @Threshold("20 ms")
+    static final class SlowLogCall extends Event {
+        @Label("Logger Name")
+        String loggerName;
+
+        @Label("Level")
+        String level;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.regex.Pattern;
+
+/**
+ * Locates the caller of a JULI {@link org.apache.juli.logging.Log Log}, that is
+ * the first stack frame outside the {@code org.apache.juli.logging} package.
+ * <p>
+ * This Java 9 implementation walks the stack with a {@link StackWalker}, that
+ * stops as soon as {@link #MAX_DEPTH} frames past the caller have been seen,
+ * and only creates {@link StackTraceElement}s for those frames.
+ *
+ * @since 1.2.0
+ * @author Benjamin Gandon
+ * @see LoggerDelegate.LogbackDelegate
+ */
+final class CallerLocator {
+
+    /** The maximum number of frames that are returned, like Logback's default. */
+    static final int MAX_DEPTH = 8;
+
+    private static final String JULI_LOGGING_PACKAGE = "org.apache.juli.logging.";
+
+    /**
+     * The Logback conversion words that need caller data, with any format
+     * modifier.
+     */
+    private static final Pattern CALLER_DATA_CONVERSION_PATTERN = Pattern
+            .compile("%[-.0-9]*(?:caller|line|L|class|C|method|M|file|F)\\b");
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private CallerLocator() {
+        super();
+    }
+
+    /**
+     * This is a method, and not a constant, so that the value of the actual
+     * implementation is not inlined by the compiler in other classes.
+     *
+     * @return {@code true}, because this implementation only walks the frames
+     *         it needs.
+     */
+    static boolean walksStackLazily() {
+        return true;
+    }
+
+    /**
+     * @param config
+     *            the content of the Logback configuration, or {@code null}
+     *            when unknown
+     * @return {@code true} if the given Logback configuration is known to have
+     *         some pattern that needs caller data, or {@code false} otherwise.
+     */
+    static boolean isNeededBy(final CharSequence config) {
+        return config != null && !ProvisionalThreshold.hasIncludes(config)
+                && CALLER_DATA_CONVERSION_PATTERN.matcher(config).find();
+    }
+
+    /**
+     * Returns the caller data of the logging event that is being logged by the
+     * current thread.
+     * <p>
+     * Frames that come before the first frame of the
+     * {@code org.apache.juli.logging} package are skipped, so that this also
+     * works when invoked from inside a logging backend.
+     *
+     * @return at most {@link #MAX_DEPTH} stack frames, starting with the
+     *         caller of the JULI {@link org.apache.juli.logging.Log Log}.
+     */
+    static StackTraceElement[] locate() {
+        return WALKER.walk(frames -> frames
+                .dropWhile(frame -> !isJuli(frame.getClassName()))
+                .dropWhile(frame -> isJuli(frame.getClassName()))
+                .limit(MAX_DEPTH)
+                .map(StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+    }
+
+    private static boolean isJuli(final String className) {
+        return className.startsWith(JULI_LOGGING_PACKAGE);
+    }
+}
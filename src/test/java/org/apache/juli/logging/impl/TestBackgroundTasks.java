@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.lang.Thread.currentThread;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Here we test that periodic tasks run on one shared daemon thread, that
+ * doesn't pin the class loader of the thread that scheduled them.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestBackgroundTasks {
+
+    @Test
+    public void shouldNotInheritContextClassLoaderOfSchedulingThread() throws Exception {
+        // Given
+        ClassLoader savedContextLoader = currentThread().getContextClassLoader();
+        final CountDownLatch ran = new CountDownLatch(2);
+        final AtomicReference<Thread> runner = new AtomicReference<>();
+        ScheduledFuture<?> task;
+        try (URLClassLoader webappLoader = new URLClassLoader(new URL[0])) {
+            currentThread().setContextClassLoader(webappLoader);
+
+            // When
+            task = BackgroundTasks.schedule("test", new Runnable() {
+                @Override
+                public void run() {
+                    runner.set(currentThread());
+                    ran.countDown();
+                    throw new IllegalStateException("next runs must not be cancelled");
+                }
+            }, 10L);
+        } finally {
+            currentThread().setContextClassLoader(savedContextLoader);
+        }
+
+        // Then
+        boolean ranTwice = ran.await(10, TimeUnit.SECONDS);
+        task.cancel(false);
+        assertTrue("the task has not run twice", ranTwice);
+        Thread thread = runner.get();
+        assertEquals(BackgroundTasks.THREAD_NAME, thread.getName());
+        assertTrue(thread.isDaemon());
+        assertSame(BackgroundTasks.class.getClassLoader(), thread.getContextClassLoader());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Here we test the detection of Logback patterns that need caller data by
+ * {@link CallerLocator}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestCallerLocator {
+
+    @Test
+    public void shouldDetectCallerDataConversionWords() {
+        assertTrue(CallerLocator.isNeededBy("<pattern>%d %-5level %logger{36}:%line - %msg%n</pattern>"));
+        assertTrue(CallerLocator.isNeededBy("<pattern>%-20.30C %M %caller{3}</pattern>"));
+        assertTrue(CallerLocator.isNeededBy("<pattern>%F:%L %m%n</pattern>"));
+    }
+
+    @Test
+    public void shouldNotMistakeOtherConversionWords() {
+        assertFalse(CallerLocator.isNeededBy("<pattern>%d %level %lo %le %logger %msg %mdc %marker %cn %n</pattern>"));
+    }
+
+    @Test
+    public void shouldNotTellWithIncludesOrUnknownConfig() {
+        assertFalse(CallerLocator.isNeededBy("<include file=\"other.xml\"/><pattern>%line</pattern>"));
+        assertFalse(CallerLocator.isNeededBy(null));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.slf4j.impl.StaticLoggerBinder.getSingleton;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactoryResetter;
+
+/**
+ * Here we test the collapsing of repeated logging events by
+ * {@link DuplicateCollapser}, and the repetitions counting of its
+ * {@link DuplicateCollapser.Fingerprint}s.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestDuplicateCollapser {
+
+    private static final Throwable EXC = new IllegalStateException();
+
+    @Mock
+    private Logger logger;
+    @Mock
+    private ILoggerFactory loggerFactory;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        getSingleton().setLoggerFactory(loggerFactory);
+        LoggerFactoryResetter.reset();
+
+        when(loggerFactory.getLogger(any(String.class))).thenReturn(logger);
+        when(logger.isWarnEnabled()).thenReturn(true);
+    }
+
+    private static long ms(final long millis) {
+        return MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void shouldCountRepetitionsWithinWindow() {
+        // Given
+        DuplicateCollapser collapser = new DuplicateCollapser(1000, 16);
+
+        // When / Then
+        assertFalse(collapser.isRepeated("toto", WARN_INT, "boom", EXC, ms(0)));
+        assertTrue(collapser.isRepeated("toto", WARN_INT, "boom", new IllegalStateException(), ms(100)));
+        assertTrue(collapser.isRepeated("toto", WARN_INT, "boom", EXC, ms(1000)));
+        assertFalse(collapser.isRepeated("toto", WARN_INT, "boom", new IllegalArgumentException(), ms(1000)));
+        assertFalse(collapser.isRepeated("titi", WARN_INT, "boom", null, ms(1000)));
+    }
+
+    @Test
+    public void shouldNotCollapseOnceWindowIsOver() {
+        // Given
+        DuplicateCollapser collapser = new DuplicateCollapser(1000, 16);
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(0));
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(500));
+
+        // When
+        boolean repeated = collapser.isRepeated("toto", WARN_INT, "boom", null, ms(1001));
+
+        // Then
+        assertFalse(repeated);
+        verify(logger).warn(eq("Message repeated 1 times in 500 ms: boom"), isNull(Throwable.class));
+        verify(loggerFactory).getLogger("toto");
+    }
+
+    @Test
+    public void shouldSummarizeFingerprintEvictedByCollidingOne() {
+        // Given
+        DuplicateCollapser collapser = new DuplicateCollapser(1000, 1);
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(0));
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(10));
+
+        // When
+        boolean repeated = collapser.isRepeated("toto", WARN_INT, "bam", null, ms(20));
+
+        // Then
+        assertFalse(repeated);
+        verify(logger).warn(eq("Message repeated 1 times in 10 ms: boom"), isNull(Throwable.class));
+        assertFalse(collapser.isRepeated("toto", WARN_INT, "boom", null, ms(30)));
+    }
+
+    @Test
+    public void shouldNotSummarizeFingerprintWithoutRepetitions() {
+        // Given
+        DuplicateCollapser collapser = new DuplicateCollapser(1000, 1);
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(0));
+
+        // When
+        collapser.isRepeated("toto", WARN_INT, "bam", null, ms(10));
+        collapser.sweep(ms(2000));
+
+        // Then
+        verify(logger, never()).warn(anyString(), any(Throwable.class));
+    }
+
+    @Test
+    public void shouldSweepFingerprintsWhoseWindowIsOver() {
+        // Given
+        DuplicateCollapser collapser = new DuplicateCollapser(1000, 16);
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(0));
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(200));
+        collapser.isRepeated("toto", WARN_INT, "boom", null, ms(300));
+
+        // When
+        collapser.sweep(ms(1000));
+        verify(logger, never()).warn(anyString(), any(Throwable.class));
+        collapser.sweep(ms(1001));
+
+        // Then
+        verify(logger).warn(eq("Message repeated 2 times in 300 ms: boom"), isNull(Throwable.class));
+        assertFalse(collapser.isRepeated("toto", WARN_INT, "boom", null, ms(1002)));
+    }
+
+    @Test
+    public void shouldMatchSameLoggerLevelMessageAndThrowableClass() {
+        // Given
+        DuplicateCollapser.Fingerprint fingerprint = new DuplicateCollapser.Fingerprint(42, "toto", 40, "boom",
+                IllegalStateException.class, 0);
+
+        // When / Then
+        assertTrue(fingerprint.matches(42, "toto", 40, "boom", IllegalStateException.class));
+        assertFalse(fingerprint.matches(42, "toto", 40, "boom", IllegalArgumentException.class));
+        assertFalse(fingerprint.matches(42, "toto", 30, "boom", IllegalStateException.class));
+        assertFalse(fingerprint.matches(42, "toto", 40, "bam", IllegalStateException.class));
+    }
+
+    @Test
+    public void shouldNotCountRepetitionsOnceEvicted() {
+        // Given
+        DuplicateCollapser.Fingerprint fingerprint = new DuplicateCollapser.Fingerprint(42, "toto", 40, "boom", null,
+                0);
+
+        // When
+        assertTrue(fingerprint.repeat(1));
+        assertTrue(fingerprint.repeat(2));
+        assertEquals(2, fingerprint.getAndSet(Long.MIN_VALUE));
+
+        // Then
+        assertFalse(fingerprint.repeat(3));
+    }
+}
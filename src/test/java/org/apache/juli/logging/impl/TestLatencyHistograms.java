@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Here we test the log-linear buckets of {@link LatencyHistograms}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestLatencyHistograms {
+
+    @Test
+    public void shouldBoundDurationsWithinTheirBucket() {
+        for (long nanos = 0; nanos < 1L << 41; nanos = nanos * 3 / 2 + 1) {
+            // When
+            int bucket = LatencyHistograms.bucketOf(nanos);
+
+            // Then
+            long upper = LatencyHistograms.upperBoundOf(bucket);
+            assertTrue(nanos + " <= " + upper, nanos <= upper);
+            assertTrue(nanos + " within 12.5% of " + upper, upper - nanos <= nanos / 8);
+            assertTrue(bucket == 0 || LatencyHistograms.upperBoundOf(bucket - 1) < nanos);
+        }
+        assertEquals(LatencyHistograms.BUCKETS - 1, LatencyHistograms.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldComputeQuantilesFromBucketCounts() {
+        // Given
+        long[] counts = new long[5 * LatencyHistograms.BUCKETS];
+        int infoHistogram = 2 * LatencyHistograms.BUCKETS;
+        counts[infoHistogram + LatencyHistograms.bucketOf(1000)] = 990;
+        counts[infoHistogram + LatencyHistograms.bucketOf(50000)] = 10;
+
+        // When / Then
+        assertEquals(LatencyHistograms.upperBoundOf(LatencyHistograms.bucketOf(1000)),
+                LatencyHistograms.quantile(counts, 2, 0.5));
+        assertEquals(LatencyHistograms.upperBoundOf(LatencyHistograms.bucketOf(50000)),
+                LatencyHistograms.quantile(counts, 2, 0.999));
+        assertEquals(0, LatencyHistograms.quantile(counts, 3, 0.5));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.apache.juli.logging.impl.Log4j2DelegatingLog.FQCN;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import org.apache.juli.logging.Log;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.spi.ExtendedLogger;
+import org.apache.logging.log4j.spi.LoggerContext;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Here we test use cases of {@link Log4j2DelegatingLog}, against the stubbed
+ * Log4j 2 API of tests.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestLog4j2DelegatingLog {
+
+    private static final LoggerContext context = mock(LoggerContext.class);
+    private static final ExtendedLogger earlyLogger = mock(ExtendedLogger.class);
+    private static final Throwable earlyExc = new IllegalStateException();
+
+    private ExtendedLogger logger;
+
+    /**
+     * Stores pre-bootstrap events, and then bootstraps Log4j 2. This must
+     * happen before any test creates a facade, which would bootstrap Log4j 2
+     * right away.
+     */
+    @BeforeClass
+    public static void bootstrapWithPreBootstrapEvents() {
+        LogManager.setContext(context);
+        when(context.getLogger("toto.early")).thenReturn(earlyLogger);
+        when(context.getLogger("toto.broken")).thenThrow(new IllegalStateException("boom"));
+
+        assertTrue(PreBootstrapLoggingEvent.add("toto.broken", FQCN, INFO_INT, "plap early", null));
+        assertTrue(PreBootstrapLoggingEvent.add("toto.early", FQCN, INFO_INT, "plip early", null));
+        assertTrue(PreBootstrapLoggingEvent.add("toto.early", FQCN, WARN_INT, "plop early", earlyExc));
+
+        assertNotNull(Log4j2Support.backend());
+    }
+
+    @Before
+    public void setup() {
+        logger = mock(ExtendedLogger.class);
+        when(context.getLogger("toto.titi")).thenReturn(logger);
+        when(logger.isEnabled(any(Level.class))).thenReturn(true);
+    }
+
+    @Test
+    public void shouldReplayPreBootstrapEventsWithOneLookupPerLogger() {
+        verify(context, times(1)).getLogger("toto.early");
+        verify(earlyLogger).logIfEnabled(FQCN, Level.INFO, null, "plip early", null);
+        verify(earlyLogger).logIfEnabled(FQCN, Level.WARN, null, "plop early", earlyExc);
+        verifyNoMoreInteractions(earlyLogger);
+    }
+
+    @Test
+    public void shouldReplayNextEventsWhenLoggerLookupFails() {
+        verify(context).getLogger("toto.broken");
+        verify(earlyLogger).logIfEnabled(FQCN, Level.INFO, null, "plip early", null);
+    }
+
+    @Test
+    public void shouldDelegateLoggingAtProperLevel() {
+        // Given
+        Log log = new Log4j2DelegatingLog("toto.titi");
+
+        // When
+        log.trace("plip plop details");
+        log.debug("plip plop dbg");
+        log.info("plip plop nfo");
+        log.warn("plip plop warning");
+        log.error("plip plop err");
+        log.fatal("plip plop boom!");
+
+        // Then
+        verify(logger).logIfEnabled(FQCN, Level.TRACE, null, "plip plop details", null);
+        verify(logger).logIfEnabled(FQCN, Level.DEBUG, null, "plip plop dbg", null);
+        verify(logger).logIfEnabled(FQCN, Level.INFO, null, "plip plop nfo", null);
+        verify(logger).logIfEnabled(FQCN, Level.WARN, null, "plip plop warning", null);
+        verify(logger).logIfEnabled(FQCN, Level.ERROR, null, "plip plop err", null);
+        verify(logger).logIfEnabled(FQCN, Level.FATAL, null, "plip plop boom!", null);
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void shouldDelegateWithThrowableAtProperLevel() {
+        // Given
+        Log log = new Log4j2DelegatingLog("toto.titi");
+        Throwable trcExc, dbgExc, nfoExc, warnExc, errExc, fatExc;
+
+        // When
+        log.trace("bim details", trcExc = new IllegalArgumentException());
+        log.debug("bim dbg", dbgExc = new RuntimeException());
+        log.info("bim nfo", nfoExc = new IllegalStateException());
+        log.warn("bim warning", warnExc = new NullPointerException());
+        log.error("bim err", errExc = new Exception());
+        log.fatal("bim boom!", fatExc = new Error());
+
+        // Then
+        verify(logger).logIfEnabled(FQCN, Level.TRACE, null, "bim details", trcExc);
+        verify(logger).logIfEnabled(FQCN, Level.DEBUG, null, "bim dbg", dbgExc);
+        verify(logger).logIfEnabled(FQCN, Level.INFO, null, "bim nfo", nfoExc);
+        verify(logger).logIfEnabled(FQCN, Level.WARN, null, "bim warning", warnExc);
+        verify(logger).logIfEnabled(FQCN, Level.ERROR, null, "bim err", errExc);
+        verify(logger).logIfEnabled(FQCN, Level.FATAL, null, "bim boom!", fatExc);
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void shouldPassMessagesAsPlainObjects() {
+        // Given
+        Log log = new Log4j2DelegatingLog("toto.titi");
+        Object msg = new Object();
+
+        // When
+        log.info(msg);
+
+        // Then
+        verify(logger).logIfEnabled(eq(FQCN), eq(Level.INFO), isNull(Marker.class), eq(msg),
+                isNull(Throwable.class));
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void shouldAskUnderlyingLoggerForEnabledLevels() {
+        // Given
+        when(logger.isEnabled(any(Level.class))).thenReturn(false);
+        when(logger.isEnabled(Level.WARN)).thenReturn(true);
+        when(logger.isEnabled(Level.FATAL)).thenReturn(true);
+        Log log = new Log4j2DelegatingLog("toto.titi");
+
+        // When, Then
+        assertFalse(log.isTraceEnabled());
+        assertFalse(log.isDebugEnabled());
+        assertFalse(log.isInfoEnabled());
+        assertTrue(log.isWarnEnabled());
+        assertFalse(log.isErrorEnabled());
+        assertTrue(log.isFatalEnabled());
+    }
+
+    @Test
+    public void shouldObtainEachLoggerFromTheLoggerContext() {
+        // Given
+        when(context.getLogger(anyString())).thenReturn(logger);
+
+        // When
+        new Log4j2DelegatingLog("titi.toto").info("plop");
+
+        // Then
+        verify(context).getLogger("titi.toto");
+        verify(logger).logIfEnabled(FQCN, Level.INFO, null, "plop", null);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Here we test the counting of logging events by {@link LogCounters}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestLogCounters {
+
+    @Test
+    public void shouldCountEmittedAndFilteredEventsPerLevel() {
+        // Given
+        LogCounters counters = LogCounters.of("toto.counted");
+
+        // When
+        counters.emitted(INFO_INT);
+        counters.emitted(ERROR_INT);
+        counters.emitted(ERROR_INT);
+        counters.filtered(TRACE_INT);
+        counters.filtered(DEBUG_INT);
+
+        // Then
+        assertArrayEquals(new long[] { 0, 0, 1, 0, 2, 1, 1, 0, 0, 0 }, LogCounters.of("toto.counted").counts());
+    }
+
+    @Test
+    public void shouldNotLoseCountsOfConcurrentThreads() throws InterruptedException {
+        // Given
+        final LogCounters counters = LogCounters.of("toto.contended");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // When
+        for (int task = 0; task < 8; ++task) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int idx = 0; idx < 100000; ++idx) {
+                        counters.emitted(INFO_INT);
+                        counters.filtered(DEBUG_INT);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, MINUTES));
+
+        // Then
+        assertArrayEquals(new long[] { 0, 0, 800000, 0, 0, 0, 800000, 0, 0, 0 }, counters.counts());
+    }
+}
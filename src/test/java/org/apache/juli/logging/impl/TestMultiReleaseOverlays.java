@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Here we test the Java 9 and Java 11 overlays of the multi-release Jar, by
+ * loading the compiled classes from such a Jar, just like Tomcat does. This is
+ * skipped on Java versions that don't support multi-release Jars, or that are
+ * older than the overlay under test.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestMultiReleaseOverlays {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private URLClassLoader loader;
+
+    @Before
+    public void setup() throws IOException {
+        assumeTrue(javaVersion() >= 9);
+        File jar = multiReleaseJarOf(codeSourceOf(CallerLocator.class));
+        loader = new URLClassLoader(new URL[] { jar.toURI().toURL(), codeSourceOf(org.slf4j.Logger.class).toURI()
+                .toURL(), codeSourceOf(org.apache.juli.logging.Log.class).toURI().toURL() }, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (loader != null) {
+            loader.close();
+        }
+    }
+
+    @Test
+    public void shouldLocateCallerWithStackWalker() throws Exception {
+        // Given
+        Class<?> locator = loader.loadClass(CallerLocator.class.getName());
+
+        // When
+        boolean lazy = (Boolean) invoke(locator, "walksStackLazily");
+        StackTraceElement[] frames = (StackTraceElement[]) invoke(locator, "locate");
+
+        // Then
+        assertTrue(lazy);
+        assertEquals(CallerLocator.MAX_DEPTH, frames.length);
+        // This test is in the JULI package too, so that its frame is skipped
+        assertFalse(frames[0].getClassName().startsWith("org.apache.juli.logging."));
+        assertEquals(0, frames[0].getClassName().indexOf("org.junit."));
+    }
+
+    /**
+     * The {@code jdk.jfr} API is used through reflection, because tests are
+     * compiled for Java 7.
+     */
+    @Test
+    public void shouldEmitFlightRecorderEvents() throws Exception {
+        // Given
+        assumeTrue(javaVersion() >= 11);
+        Class<?> events = loader.loadClass(FlightRecorderEvents.class.getName());
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, "org.apache.juli.logging.BootstrapPhase");
+        recordingClass.getMethod("start").invoke(recording);
+        Path dump = folder.getRoot().toPath().resolve("bootstrap.jfr");
+
+        // When
+        Object phase;
+        try {
+            phase = invoke(events, "beginBootstrapPhase");
+            method(events, "endBootstrapPhase", Object.class, String.class).invoke(null, phase, "init");
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+        }
+
+        // Then
+        assertTrue((Boolean) invoke(events, "available"));
+        assertNotNull(phase);
+        List<?> recorded = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, dump);
+        assertEquals(1, recorded.size());
+        Object evt = recorded.get(0);
+        assertEquals("init", evt.getClass().getMethod("getString", String.class).invoke(evt, "phase"));
+    }
+
+    private static Object invoke(final Class<?> clazz, final String name) throws Exception {
+        try {
+            return method(clazz, name).invoke(null);
+        } catch (InvocationTargetException exc) {
+            throw (Exception) exc.getCause();
+        }
+    }
+
+    private static Method method(final Class<?> clazz, final String name, final Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        Method method = clazz.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+    }
+
+    private static File codeSourceOf(final Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (java.net.URISyntaxException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Packs the given classes directory as a multi-release Jar, the way the
+     * Jar plugin does.
+     */
+    private File multiReleaseJarOf(final File classesDir) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        File jar = folder.newFile("juli-to-slf4j.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            addEntries(out, classesDir, "");
+        }
+        return jar;
+    }
+
+    private static void addEntries(final JarOutputStream out, final File dir, final String prefix)
+            throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        byte[] buffer = new byte[4096];
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                out.putNextEntry(new JarEntry(name + "/"));
+                out.closeEntry();
+                addEntries(out, file, name + "/");
+            } else if (!"META-INF/MANIFEST.MF".equals(name)) {
+                out.putNextEntry(new JarEntry(name));
+                try (InputStream in = new FileInputStream(file)) {
+                    for (int read; (read = in.read(buffer)) != -1;) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.apache.juli.logging.impl.PreBootstrapEventStore.CHUNK_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+
+import java.util.Iterator;
+
+import org.apache.juli.logging.impl.PreBootstrapLoggingEvent.OverflowPolicy;
+import org.junit.Test;
+
+/**
+ * Here we test the bounded storage of pre-bootstrap logging events.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestPreBootstrapEventStore {
+
+    private static final String FQCN = TestPreBootstrapEventStore.class.getName();
+
+    private static long add(final PreBootstrapEventStore store, final int level, final String msg) {
+        return store.add("toto.titi", FQCN, level, msg, null, 0L);
+    }
+
+    @Test
+    public void shouldKeepNewestEventsWhenDroppingOldest() {
+        // Given
+        PreBootstrapEventStore store = new PreBootstrapEventStore(100, 0, OverflowPolicy.DROP_OLDEST);
+
+        // When
+        for (int idx = 0; idx < 1000; ++idx) {
+            add(store, INFO_INT, "msg" + idx);
+        }
+
+        // Then
+        assertEquals(900, store.droppedEvents());
+        Iterator<PreBootstrapLoggingEvent> events = store.close();
+        for (int idx = 900; idx < 1000; ++idx) {
+            PreBootstrapLoggingEvent evt = events.next();
+            assertEquals(idx, evt.seq);
+            assertEquals("msg" + idx, evt.msg);
+        }
+        assertFalse(events.hasNext());
+    }
+
+    @Test
+    public void shouldDropLowestLevelsFirst() {
+        // Given
+        PreBootstrapEventStore store = new PreBootstrapEventStore(2, 0, OverflowPolicy.DROP_LOWEST_LEVEL_FIRST);
+
+        // When
+        add(store, ERROR_INT, "err");
+        add(store, DEBUG_INT, "dbg");
+        add(store, INFO_INT, "nfo");
+
+        // Then
+        Iterator<PreBootstrapLoggingEvent> events = store.close();
+        assertEquals("err", events.next().msg);
+        assertEquals("nfo", events.next().msg);
+        assertFalse(events.hasNext());
+    }
+
+    @Test
+    public void shouldNotGrowChunkTableWithReleasedChunks() {
+        // Given
+        PreBootstrapEventStore store = new PreBootstrapEventStore(CHUNK_SIZE, 0, OverflowPolicy.DROP_OLDEST);
+
+        // When
+        for (int idx = 0; idx < 1000 * CHUNK_SIZE; ++idx) {
+            add(store, INFO_INT, "msg");
+        }
+
+        // Then
+        assertTrue("chunk table length: " + store.chunkTableLength(), store.chunkTableLength() <= 16);
+        Iterator<PreBootstrapLoggingEvent> events = store.close();
+        int count = 0;
+        for (; events.hasNext(); events.next()) {
+            ++count;
+        }
+        assertEquals(CHUNK_SIZE, count);
+    }
+
+    @Test
+    public void shouldRejectEventsOnceClosed() {
+        // Given
+        PreBootstrapEventStore store = new PreBootstrapEventStore(0, 0, OverflowPolicy.DROP_OLDEST);
+        add(store, INFO_INT, "nfo");
+
+        // When
+        assertFalse(store.isClosed());
+        Iterator<PreBootstrapLoggingEvent> events = store.close();
+
+        // Then
+        assertTrue(store.isClosed());
+        assertEquals(-1, add(store, INFO_INT, "too late"));
+        assertEquals("nfo", events.next().msg);
+        assertFalse(events.hasNext());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Here we test the recovery of pre-bootstrap logging events from the journal
+ * of a crashed run.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestPreBootstrapJournal {
+
+    private static final String FQCN = TestPreBootstrapJournal.class.getName();
+    private static final int SIZE = 64 * 1024;
+    /** The size of the journal header. */
+    private static final int FIRST_RECORD = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void append(final PreBootstrapJournal journal, final long seq, final String msg) {
+        journal.append(seq, 1000L + seq, INFO_INT, "toto.titi", FQCN, msg, null);
+    }
+
+    @Test
+    public void shouldRecoverRecordsOfUnclosedJournal() throws IOException {
+        // Given
+        File file = folder.newFile();
+        PreBootstrapJournal crashed = PreBootstrapJournal.open(file, SIZE);
+        append(crashed, 0, "plip");
+        crashed.append(1, 1001L, WARN_INT, "toto.tata", FQCN, "plop", new IllegalStateException("boom"));
+
+        // When
+        List<PreBootstrapJournal.Record> recovered = PreBootstrapJournal.open(file, SIZE).recovered();
+
+        // Then
+        assertEquals(2, recovered.size());
+        assertEquals("plip", recovered.get(0).msg);
+        assertEquals(1000L, recovered.get(0).timeStamp);
+        assertEquals("toto.tata", recovered.get(1).logName);
+        assertEquals(WARN_INT, recovered.get(1).level);
+        assertTrue(recovered.get(1).thrown.contains("boom"));
+    }
+
+    @Test
+    public void shouldNotRecoverRecordsOfClosedJournal() throws IOException {
+        // Given
+        File file = folder.newFile();
+        PreBootstrapJournal journal = PreBootstrapJournal.open(file, SIZE);
+        append(journal, 0, "plip");
+        journal.close();
+
+        // When
+        List<PreBootstrapJournal.Record> recovered = PreBootstrapJournal.open(file, SIZE).recovered();
+
+        // Then
+        assertTrue(recovered.isEmpty());
+    }
+
+    @Test
+    public void shouldSkipUncommittedRecord() throws IOException {
+        // Given
+        File file = folder.newFile();
+        PreBootstrapJournal crashed = PreBootstrapJournal.open(file, SIZE);
+        append(crashed, 0, "plip");
+        append(crashed, 1, "plap");
+        append(crashed, 2, "plop");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int second = FIRST_RECORD + readInt(raf, FIRST_RECORD);
+            // As if the writer of the second record had crashed before
+            // committing it
+            raf.seek(second + 4);
+            raf.writeInt(0);
+        }
+
+        // When
+        List<PreBootstrapJournal.Record> recovered = PreBootstrapJournal.open(file, SIZE).recovered();
+
+        // Then
+        assertEquals(2, recovered.size());
+        assertEquals("plip", recovered.get(0).msg);
+        assertEquals("plop", recovered.get(1).msg);
+    }
+
+    @Test
+    public void shouldFindRecordsAfterUnwrittenReservedSpace() throws IOException {
+        // Given
+        File file = folder.newFile();
+        PreBootstrapJournal crashed = PreBootstrapJournal.open(file, SIZE);
+        append(crashed, 0, "plip");
+        append(crashed, 1, "plap");
+        append(crashed, 2, "plop");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int length = readInt(raf, FIRST_RECORD);
+            // As if the writer of the first record had crashed just after
+            // reserving its space
+            raf.seek(FIRST_RECORD);
+            raf.write(new byte[length]);
+        }
+
+        // When
+        List<PreBootstrapJournal.Record> recovered = PreBootstrapJournal.open(file, SIZE).recovered();
+
+        // Then
+        assertEquals(2, recovered.size());
+        assertEquals("plap", recovered.get(0).msg);
+        assertEquals("plop", recovered.get(1).msg);
+    }
+
+    @Test
+    public void shouldNotJournalBeyondItsSize() throws IOException {
+        // Given
+        File file = folder.newFile();
+        PreBootstrapJournal crashed = PreBootstrapJournal.open(file, 0);
+        assertNotNull(crashed);
+        StringBuilder big = new StringBuilder();
+        for (int idx = 0; idx < 2048; ++idx) {
+            big.append('x');
+        }
+
+        // When
+        append(crashed, 0, big.toString());
+        append(crashed, 1, "plip");
+
+        // Then
+        List<PreBootstrapJournal.Record> recovered = PreBootstrapJournal.open(file, 0).recovered();
+        assertEquals(1, recovered.size());
+        assertEquals("plip", recovered.get(0).msg);
+        assertNull(recovered.get(0).thrown);
+    }
+
+    private static int readInt(final RandomAccessFile raf, final long pos) throws IOException {
+        raf.seek(pos);
+        return raf.readInt();
+    }
+}
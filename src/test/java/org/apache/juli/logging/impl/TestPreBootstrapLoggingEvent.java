@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+/**
+ * Here we test the selection of the replayers of pre-bootstrap logging
+ * events.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestPreBootstrapLoggingEvent {
+
+    @Test
+    public void shouldSelectFirstSupportingReplayer() {
+        // Given
+        Logger logger = mock(Logger.class);
+        PreBootstrapReplayer unsupporting = mock(PreBootstrapReplayer.class);
+        PreBootstrapReplayer supporting = mock(PreBootstrapReplayer.class);
+        when(supporting.supports(logger)).thenReturn(true);
+        GenericReplayer generic = new GenericReplayer();
+
+        // When
+        PreBootstrapReplayer selected = PreBootstrapLoggingEvent.supportingReplayer(logger,
+                Arrays.asList(unsupporting, supporting, generic));
+
+        // Then
+        assertSame(supporting, selected);
+    }
+
+    @Test
+    public void shouldSkipReplayersThatFailTellingTheySupportLogger() {
+        // Given
+        Logger logger = mock(Logger.class);
+        when(logger.getName()).thenReturn("toto.titi");
+        PreBootstrapReplayer failing = mock(PreBootstrapReplayer.class);
+        when(failing.supports(logger)).thenThrow(new IllegalStateException("boom"));
+        PreBootstrapReplayer unlinkable = mock(PreBootstrapReplayer.class);
+        when(unlinkable.supports(logger)).thenThrow(new NoClassDefFoundError("com/example/Backend"));
+        GenericReplayer generic = new GenericReplayer();
+
+        // When
+        PreBootstrapReplayer selected = PreBootstrapLoggingEvent.supportingReplayer(logger,
+                Arrays.asList(failing, unlinkable, generic));
+
+        // Then
+        assertSame(generic, selected);
+    }
+}
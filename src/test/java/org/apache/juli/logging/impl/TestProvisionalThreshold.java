@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.slf4j.spi.LocationAwareLogger.DEBUG_INT;
+import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
+import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import org.junit.Test;
+
+/**
+ * Here we test the pre-parsing of Logback configurations by
+ * {@link ProvisionalThreshold}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestProvisionalThreshold {
+
+    @Test
+    public void shouldRetainLowestLevelThatIsSet() {
+        assertEquals(INFO_INT, ProvisionalThreshold.lowestLevel("<configuration>"
+                + "<logger name='org.apache.coyote' level='INFO'/>"
+                + "<root level=\"WARN\"><appender-ref ref='FILE'/></root>"
+                + "</configuration>"));
+    }
+
+    @Test
+    public void shouldRetainRootLevelSetWithChildElement() {
+        assertEquals(WARN_INT, ProvisionalThreshold.lowestLevel("<configuration>"
+                + "<root><level value='WARN'/><appender-ref ref='FILE'/></root>"
+                + "</configuration>"));
+    }
+
+    @Test
+    public void shouldRetainDefaultLevelOfRootWithoutLevel() {
+        assertEquals(DEBUG_INT, ProvisionalThreshold.lowestLevel("<configuration>"
+                + "<logger name='org.apache.coyote' level='WARN'/>"
+                + "<root><appender-ref ref='FILE'/></root>"
+                + "<logger name='org.apache.catalina'><level value='INFO'/></logger>"
+                + "</configuration>"));
+        assertEquals(DEBUG_INT, ProvisionalThreshold.lowestLevel("<configuration>"
+                + "<logger name='org.apache.coyote' level='WARN'/>"
+                + "</configuration>"));
+    }
+
+    @Test
+    public void shouldKeepAllEventsWhenInconclusive() {
+        assertEquals(TRACE_INT, ProvisionalThreshold.lowestLevel("<root level='${ROOT_LEVEL}'/>"));
+        assertEquals(TRACE_INT, ProvisionalThreshold.lowestLevel("<root level='WARN'/><include file='x.xml'/>"));
+    }
+
+    @Test
+    public void shouldKeepAllEventsWithTurboFilters() {
+        assertEquals(TRACE_INT, ProvisionalThreshold.lowestLevel("<configuration>"
+                + "<turboFilter class='ch.qos.logback.classic.turbo.DynamicThresholdFilter'>"
+                + "<Key>userId</Key><DefaultThreshold>ERROR</DefaultThreshold>"
+                + "<MDCValueLevelPair><value>alice</value><level>DEBUG</level></MDCValueLevelPair>"
+                + "</turboFilter>"
+                + "<root level='WARN'/>"
+                + "</configuration>"));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.spi.LocationAwareLogger.ERROR_INT;
+import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Here we test the parsing of {@link RateLimits} rules, and their token
+ * buckets.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestRateLimits {
+
+    @Test
+    public void shouldParseValidRulesOnly() {
+        // When
+        List<RateLimits.Rule> rules = RateLimits.parseRules(" org.apache.coyote:WARN = 100/s,bad, toto:BOGUS=1/s,"
+                + "org.apache.tomcat.util.net=10/m");
+
+        // Then
+        assertEquals(2, rules.size());
+        assertEquals("org.apache.coyote", rules.get(0).prefix);
+        assertEquals(WARN_INT, rules.get(0).level);
+        assertEquals(SECONDS.toNanos(1) / 100, rules.get(0).interval);
+        assertEquals("org.apache.tomcat.util.net", rules.get(1).prefix);
+        assertEquals(SECONDS.toNanos(60) / 10, rules.get(1).interval);
+    }
+
+    @Test
+    public void shouldMatchPrefixOnNameBoundaries() {
+        // Given
+        RateLimits.Rule rule = RateLimits.parseRules("org.apache.coyote=1/s").get(0);
+
+        // When / Then
+        assertTrue(rule.matches("org.apache.coyote"));
+        assertTrue(rule.matches("org.apache.coyote.http11.Http11Processor"));
+        assertFalse(rule.matches("org.apache.coyotes"));
+    }
+
+    @Test
+    public void shouldAllowBurstThenSuppress() {
+        // Given
+        RateLimits.Bucket bucket = new RateLimits.Bucket(RateLimits.parseRules("toto:ERROR=5/h").get(0));
+
+        // When
+        int allowed = 0;
+        for (int idx = 0; idx < 20; ++idx) {
+            if (bucket.tryAcquire()) {
+                ++allowed;
+            }
+        }
+
+        // Then
+        assertEquals(5, allowed);
+        assertEquals(15, bucket.drainSuppressed());
+        assertEquals(0, bucket.drainSuppressed());
+        assertEquals(ERROR_INT, RateLimits.parseRules("toto:FATAL=5/h").get(0).level);
+    }
+}
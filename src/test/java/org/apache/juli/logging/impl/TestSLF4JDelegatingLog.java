@@ -16,9 +16,13 @@
  */
 package org.apache.juli.logging.impl;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -32,6 +36,8 @@ import static org.slf4j.spi.LocationAwareLogger.INFO_INT;
 import static org.slf4j.spi.LocationAwareLogger.TRACE_INT;
 import static org.slf4j.spi.LocationAwareLogger.WARN_INT;
 
+import java.util.Collections;
+
 import org.apache.juli.logging.Log;
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +45,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
+import org.slf4j.LoggerFactoryResetter;
 import org.slf4j.impl.StaticLoggerBinder;
 import org.slf4j.spi.LocationAwareLogger;
 
@@ -63,8 +70,19 @@ public class TestSLF4JDelegatingLog {
     public void setup() {
         initMocks(this);
         binder.setLoggerFactory(loggerFactory);
+        LoggerFactoryResetter.reset();
 
         when(loggerFactory.getLogger(any(String.class))).thenReturn(logger);
+        enableAllLevels(logger);
+        enableAllLevels(locatingLogger);
+    }
+
+    private static void enableAllLevels(final Logger logger) {
+        when(logger.isTraceEnabled()).thenReturn(true);
+        when(logger.isDebugEnabled()).thenReturn(true);
+        when(logger.isInfoEnabled()).thenReturn(true);
+        when(logger.isWarnEnabled()).thenReturn(true);
+        when(logger.isErrorEnabled()).thenReturn(true);
     }
 
     @Test
@@ -87,7 +105,7 @@ public class TestSLF4JDelegatingLog {
         verify(logger).warn(eq("plip plop warning"), isNull(Throwable.class));
         verify(logger).error(eq("plip plop err"), isNull(Throwable.class));
         verify(logger).error(eq("plip plop boom!"), isNull(Throwable.class));
-        verifyNoMoreInteractions(logger);
+        verifyNoMoreInteractions(ignoreStubs(logger));
         verifyZeroInteractions(locatingLogger);
     }
 
@@ -112,7 +130,7 @@ public class TestSLF4JDelegatingLog {
         verify(logger).warn("bim warning", warnExc);
         verify(logger).error("bim err", errExc);
         verify(logger).error("bim boom!", fatExc);
-        verifyNoMoreInteractions(logger);
+        verifyNoMoreInteractions(ignoreStubs(logger));
         verifyZeroInteractions(locatingLogger);
     }
 
@@ -131,7 +149,7 @@ public class TestSLF4JDelegatingLog {
 
         // Then
         verify(logger).info(eq("pif paf pouf"), isNull(Throwable.class));
-        verifyNoMoreInteractions(logger);
+        verifyNoMoreInteractions(ignoreStubs(logger));
         verifyZeroInteractions(locatingLogger);
     }
 
@@ -154,7 +172,7 @@ public class TestSLF4JDelegatingLog {
         verify(logger).info(eq("null"), isNull(Throwable.class));
         verify(logger).warn(eq("null"), isNull(Throwable.class));
         verify(logger, times(2)).error(eq("null"), isNull(Throwable.class));
-        verifyNoMoreInteractions(logger);
+        verifyNoMoreInteractions(ignoreStubs(logger));
         verifyZeroInteractions(locatingLogger);
     }
 
@@ -180,7 +198,59 @@ public class TestSLF4JDelegatingLog {
         verify(locatingLogger).log(null, LOG_FQCN, WARN_INT, "plop plip warning", null, null);
         verify(locatingLogger).log(null, LOG_FQCN, ERROR_INT, "plop plip err", null, null);
         verify(locatingLogger).log(null, LOG_FQCN, ERROR_INT, "plop plip boom!", null, null);
-        verifyNoMoreInteractions(locatingLogger);
+        verifyNoMoreInteractions(ignoreStubs(locatingLogger));
         verifyZeroInteractions(logger);
     }
+
+    @Test
+    public void shouldNotConvertMessagesForDisabledLevels() {
+        // Given
+        when(logger.isTraceEnabled()).thenReturn(false);
+        when(logger.isDebugEnabled()).thenReturn(false);
+        Log log = new SLF4JDelegatingLog("toto.titi");
+        Object costlyMessage = new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("message should not be converted");
+            }
+        };
+
+        // When
+        log.trace(costlyMessage);
+        log.debug(costlyMessage, new RuntimeException());
+
+        // Then
+        verify(logger, never()).trace(any(String.class), any(Throwable.class));
+        verify(logger, never()).debug(any(String.class), any(Throwable.class));
+        verifyNoMoreInteractions(ignoreStubs(logger));
+    }
+
+    @Test
+    public void shouldCacheLevelsUntilInvalidated() {
+        // Given
+        when(logger.isTraceEnabled()).thenReturn(false);
+        when(logger.isDebugEnabled()).thenReturn(false);
+        Log log = new SLF4JDelegatingLog("toto.titi");
+        SeparateLogbackSupport.enableLevelsCaching(Collections.emptyList());
+        try {
+            // When
+            boolean debugBefore = log.isDebugEnabled();
+            log.debug("plip plop dbg");
+            log.info("plip plop nfo");
+            when(logger.isDebugEnabled()).thenReturn(true);
+            boolean debugCached = log.isDebugEnabled();
+            SeparateLogbackSupport.invalidateLevels();
+            boolean debugAfter = log.isDebugEnabled();
+
+            // Then
+            assertFalse(debugBefore);
+            assertFalse(debugCached);
+            assertTrue(debugAfter);
+            verify(logger, times(2)).isDebugEnabled();
+            verify(logger).info(eq("plip plop nfo"), isNull(Throwable.class));
+            verifyNoMoreInteractions(ignoreStubs(logger));
+        } finally {
+            SeparateLogbackSupport.disableLevelsCaching();
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.juli.logging.impl;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.slf4j.impl.StaticLoggerBinder.getSingleton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.juli.logging.Log;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactoryResetter;
+import org.slf4j.impl.StaticLoggerBinder;
+
+/**
+ * Here we test that thousands of virtual threads can log concurrently while
+ * the logging system bootstraps. This is skipped on Java versions that have
+ * no virtual threads.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestVirtualThreadBootstrap {
+
+    private static final int TASKS = 5000;
+
+    @Mock
+    private Logger logger;
+    @Mock
+    private ILoggerFactory loggerFactory;
+
+    private final StaticLoggerBinder binder = getSingleton();
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        LoggerFactoryResetter.reset();
+        SeparateLogbackSupport.bootstrapped = false;
+
+        when(loggerFactory.getLogger(any(String.class))).thenReturn(logger);
+        when(logger.isInfoEnabled()).thenReturn(true);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exc) {
+            assumeNoException(exc);
+            return null;
+        }
+    }
+
+    @Test
+    public void shouldLogFromThousandsOfVirtualThreadsDuringBootstrap() throws Exception {
+        // Given
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        List<Future<?>> results = new ArrayList<>(TASKS);
+
+        // When
+        for (int idx = 0; idx < TASKS; ++idx) {
+            final String name = "toto.titi" + (idx % 16);
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    binder.setLoggerFactory(loggerFactory);
+                    Log log = new SLF4JDelegatingLog(name);
+                    log.info("plip plop nfo");
+                }
+            }));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, MINUTES));
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        // Then
+        verify(logger, times(TASKS)).info(eq("plip plop nfo"), isNull(Throwable.class));
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.logging.log4j;
+
+/**
+ * A stub of the Log4j 2 {@code Level} class, with only the standard levels.
+ *
+ * @author Benjamin Gandon
+ */
+public final class Level {
+
+    public static final Level FATAL = new Level("FATAL");
+    public static final Level ERROR = new Level("ERROR");
+    public static final Level WARN = new Level("WARN");
+    public static final Level INFO = new Level("INFO");
+    public static final Level DEBUG = new Level("DEBUG");
+    public static final Level TRACE = new Level("TRACE");
+
+    private final String name;
+
+    private Level(final String name) {
+        super();
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.logging.log4j;
+
+import org.apache.logging.log4j.spi.LoggerContext;
+
+/**
+ * A stub of the Log4j 2 {@code LogManager}, that returns the logger context
+ * which has been set by tests.
+ * <p>
+ * Having these stubs on the test class path makes the Log4j 2 facade
+ * bootstrap as soon as it is first used, just like the
+ * {@code org.slf4j.impl.StaticLoggerBinder} of tests does for the SLF4J
+ * facade.
+ *
+ * @author Benjamin Gandon
+ */
+public final class LogManager {
+
+    private static volatile LoggerContext context;
+
+    private LogManager() {
+    }
+
+    /**
+     * Set the logger context to return. This will typically be a mock object.
+     */
+    public static void setContext(final LoggerContext loggerContext) {
+        context = loggerContext;
+    }
+
+    public static LoggerContext getContext(final ClassLoader loader, final boolean currentContext) {
+        return context;
+    }
+}
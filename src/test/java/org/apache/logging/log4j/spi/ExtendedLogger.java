@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.logging.log4j.spi;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+
+/**
+ * A stub of the Log4j 2 {@code ExtendedLogger} interface, with only the
+ * methods that the Log4j 2 facade uses.
+ *
+ * @author Benjamin Gandon
+ */
+public interface ExtendedLogger {
+
+    boolean isEnabled(Level level);
+
+    void logIfEnabled(String fqcn, Level level, Marker marker, Object message, Throwable t);
+}
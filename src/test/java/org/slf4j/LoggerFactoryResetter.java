@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.slf4j;
+
+/**
+ * Gives tests from other packages access to the package-private
+ * {@link LoggerFactory#reset()} method.
+ * <p>
+ * Resetting is necessary for tests that change the logger factory of the
+ * {@code org.slf4j.impl.StaticLoggerBinder}, because the {@link LoggerFactory}
+ * caches the resolved logger factory.
+ *
+ * @author Benjamin Gandon
+ */
+public class LoggerFactoryResetter {
+
+    private LoggerFactoryResetter() {
+    }
+
+    /**
+     * Forces the {@link LoggerFactory} to consider itself uninitialized.
+     */
+    public static void reset() {
+        LoggerFactory.reset();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.slf4j;
+
+import static java.lang.Thread.currentThread;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.impl.StaticLoggerBinder;
+
+/**
+ * Here we test that {@link ClassLoaderContextSelector} selects the SLF4J
+ * binding of web applications, and releases their class loaders.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestClassLoaderContextSelector {
+
+    private static final String BINDER_CLASS = "org.slf4j.impl.StaticLoggerBinder";
+    private static final String BOUND_FACTORY_CLASS = BoundLoggerFactory.class.getName();
+
+    private final ILoggerFactory defaultFactory = new BoundLoggerFactory();
+
+    private ClassLoaderContextSelector selector;
+    private ClassLoader savedContextLoader;
+
+    @Before
+    public void setUp() {
+        ClassLoader defaultLoader = getClass().getClassLoader();
+        selector = new ClassLoaderContextSelector(defaultLoader, StaticLoggerBinder.class);
+        savedContextLoader = currentThread().getContextClassLoader();
+    }
+
+    @After
+    public void tearDown() {
+        currentThread().setContextClassLoader(savedContextLoader);
+    }
+
+    @Test
+    public void should_select_default_factory_for_default_loader() {
+        // Given
+        currentThread().setContextClassLoader(getClass().getClassLoader());
+
+        // When
+        ILoggerFactory selected = selector.select(defaultFactory, "com.example.Foo");
+
+        // Then
+        assertSame(defaultFactory, selected);
+    }
+
+    @Test
+    public void should_select_default_factory_without_webapp_binding() {
+        // Given
+        currentThread().setContextClassLoader(new ChildFirstLoader());
+
+        // When
+        ILoggerFactory selected = selector.select(defaultFactory, "com.example.Foo");
+
+        // Then
+        assertSame(defaultFactory, selected);
+    }
+
+    @Test
+    public void should_select_webapp_binding_but_not_for_container_loggers() throws Exception {
+        // Given
+        ChildFirstLoader webappLoader = new ChildFirstLoader(BINDER_CLASS, BOUND_FACTORY_CLASS);
+        Object binder = setWebappLoggerFactory(webappLoader);
+        currentThread().setContextClassLoader(webappLoader);
+
+        try {
+            // When
+            ILoggerFactory selected = selector.select(defaultFactory, "com.example.Foo");
+            ILoggerFactory container = selector.select(defaultFactory, "org.apache.catalina.core.StandardContext");
+            ILoggerFactory unnamed = selector.select(defaultFactory, null);
+
+            // Then
+            assertSame(webappLoader, selected.getClass().getClassLoader());
+            assertSame(defaultFactory, container);
+            assertSame(selected, unnamed);
+        } finally {
+            clearWebappLoggerFactory(binder);
+        }
+    }
+
+    @Test
+    public void should_release_undeployed_webapp_loader() throws Exception {
+        // Given
+        WeakReference<ClassLoader> webappLoaderRef = deployAndUndeployWebapp();
+
+        // When
+        boolean collected = awaitCollection(webappLoaderRef, TimeUnit.SECONDS.toMillis(10));
+        selector.expungeCollectedLoaders();
+
+        // Then
+        assertTrue("the web application class loader has not been collected", collected);
+        assertEquals(0, selector.selectionCount());
+    }
+
+    @Test
+    public void should_recognize_container_loggers() {
+        assertTrue(ClassLoaderContextSelector.isContainerLogger("org.apache.catalina.startup.Catalina"));
+        assertTrue(ClassLoaderContextSelector.isContainerLogger("org.apache.tomcat.util.net.NioEndpoint"));
+        assertTrue(ClassLoaderContextSelector.isContainerLogger("org.apache.coyote.http11.Http11NioProtocol"));
+        assertFalse(ClassLoaderContextSelector.isContainerLogger("org.apache.catalinax.Foo"));
+        assertFalse(ClassLoaderContextSelector.isContainerLogger("com.example.Foo"));
+        assertFalse(ClassLoaderContextSelector.isContainerLogger(null));
+    }
+
+    /**
+     * Selects the binding of a web application, then drops all references to
+     * its class loader, the way an undeployment does.
+     */
+    private WeakReference<ClassLoader> deployAndUndeployWebapp() throws Exception {
+        ChildFirstLoader webappLoader = new ChildFirstLoader(BINDER_CLASS, BOUND_FACTORY_CLASS);
+        Object binder = setWebappLoggerFactory(webappLoader);
+        currentThread().setContextClassLoader(webappLoader);
+        try {
+            ILoggerFactory selected = selector.select(defaultFactory, "com.example.Foo");
+            assertSame(webappLoader, selected.getClass().getClassLoader());
+        } finally {
+            currentThread().setContextClassLoader(savedContextLoader);
+            clearWebappLoggerFactory(binder);
+        }
+        return new WeakReference<ClassLoader>(webappLoader);
+    }
+
+    private static Object setWebappLoggerFactory(final ClassLoader webappLoader) throws Exception {
+        Class<?> binderClass = webappLoader.loadClass(BINDER_CLASS);
+        Object binder = binderClass.getMethod("getSingleton").invoke(null);
+        Object factory = webappLoader.loadClass(BOUND_FACTORY_CLASS).getConstructor().newInstance();
+        binderClass.getMethod("setLoggerFactory", ILoggerFactory.class).invoke(binder, factory);
+        return binder;
+    }
+
+    /**
+     * The test binder stores its factory in a thread local, that would
+     * otherwise pin the web application class loader from the current thread.
+     */
+    private static void clearWebappLoggerFactory(final Object binder) throws Exception {
+        binder.getClass().getMethod("setLoggerFactory", ILoggerFactory.class).invoke(binder, (Object) null);
+    }
+
+    private static boolean awaitCollection(final WeakReference<?> ref, final long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (ref.get() != null) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            System.gc();
+            Thread.sleep(20L);
+        }
+        return true;
+    }
+
+    /**
+     * A class loader that defines the given classes itself, like a web
+     * application class loader does for the classes of the web application.
+     */
+    private static final class ChildFirstLoader extends ClassLoader {
+        private final Set<String> ownClasses;
+
+        ChildFirstLoader(final String... ownClasses) {
+            super(TestClassLoaderContextSelector.class.getClassLoader());
+            this.ownClasses = new HashSet<>(Arrays.asList(ownClasses));
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!ownClasses.contains(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    byte[] bytes = readClassBytes(name);
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+        private byte[] readClassBytes(final String name) throws ClassNotFoundException {
+            String resource = name.replace('.', '/') + ".class";
+            try (InputStream in = getParent().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read; (read = in.read(buffer)) != -1;) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } catch (IOException exc) {
+                throw new ClassNotFoundException(name, exc);
+            }
+        }
+    }
+
+    /**
+     * A logger factory that web applications define with their own class
+     * loader.
+     */
+    public static final class BoundLoggerFactory implements ILoggerFactory {
+        @Override
+        public Logger getLogger(final String name) {
+            return null;
+        }
+    }
+}
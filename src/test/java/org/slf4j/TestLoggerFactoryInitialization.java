@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.slf4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.slf4j.impl.StaticLoggerBinder.getSingleton;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Here we stress the concurrent initialization of our shadowing
+ * {@link LoggerFactory}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestLoggerFactoryInitialization {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    private final ILoggerFactory loggerFactory = new ILoggerFactory() {
+        @Override
+        public Logger getLogger(final String name) {
+            return null;
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        LoggerFactory.reset();
+    }
+
+    @Test
+    public void concurrentCallsShouldAllGetTheActualFactory() throws Exception {
+        for (int round = 0; round < ROUNDS; ++round) {
+            // Given
+            LoggerFactory.reset();
+            final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            Callable<ILoggerFactory> task = new Callable<ILoggerFactory>() {
+                @Override
+                public ILoggerFactory call() throws Exception {
+                    getSingleton().setLoggerFactory(loggerFactory);
+                    barrier.await();
+                    return LoggerFactory.getILoggerFactory();
+                }
+            };
+
+            // When
+            @SuppressWarnings("unchecked")
+            Future<ILoggerFactory>[] results = new Future[THREADS];
+            for (int idx = 0; idx < THREADS; ++idx) {
+                results[idx] = executor.submit(task);
+            }
+
+            // Then
+            for (Future<ILoggerFactory> result : results) {
+                assertSame("round #" + round, loggerFactory, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(LoggerFactory.SUCCESSFUL_INITIALIZATION, LoggerFactory.INITIALIZATION_STATE.get());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015-2017 Benjamin Gandon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.slf4j;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.slf4j.impl.StaticLoggerBinder.getSingleton;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Here we test the caching of the {@link ILoggerFactory} of the separated
+ * SLF4J implementation by {@link SeparateSLF4JImplBridge}.
+ *
+ * @author Benjamin Gandon
+ */
+public class TestSeparateSLF4JImplBridge {
+
+    private static final String LOGBACK_CTX_SELECTOR_PROPERTY = "logback.ContextSelector";
+
+    private final ILoggerFactory firstFactory = mock(ILoggerFactory.class);
+    private final ILoggerFactory secondFactory = mock(ILoggerFactory.class);
+
+    @Before
+    public void setUp() {
+        getSingleton().setLoggerFactory(firstFactory);
+        LoggerFactory.reset();
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LOGBACK_CTX_SELECTOR_PROPERTY);
+        getSingleton().setLoggerFactory(null);
+        LoggerFactory.reset();
+    }
+
+    @Test
+    public void shouldResolveLoggerFactoryOnlyOnceAfterBinding() {
+        // Given
+        assertSame(firstFactory, LoggerFactory.getILoggerFactory());
+
+        // When
+        getSingleton().setLoggerFactory(secondFactory);
+
+        // Then
+        assertSame(firstFactory, LoggerFactory.getILoggerFactory());
+        assertSame(firstFactory, SeparateSLF4JImplBridge.getLoggerFactory());
+    }
+
+    @Test
+    public void shouldResolveLoggerFactoryAgainAfterReset() {
+        // Given
+        assertSame(firstFactory, LoggerFactory.getILoggerFactory());
+        getSingleton().setLoggerFactory(secondFactory);
+
+        // When
+        LoggerFactory.reset();
+
+        // Then
+        assertSame(secondFactory, LoggerFactory.getILoggerFactory());
+    }
+
+    @Test
+    public void shouldNotCacheLoggerFactoryWithLogbackContextSelector() {
+        // Given
+        System.setProperty(LOGBACK_CTX_SELECTOR_PROPERTY, "JNDI");
+        LoggerFactory.reset();
+        assertSame(firstFactory, LoggerFactory.getILoggerFactory());
+
+        // When
+        getSingleton().setLoggerFactory(secondFactory);
+
+        // Then
+        assertSame(secondFactory, LoggerFactory.getILoggerFactory());
+        assertSame(secondFactory, SeparateSLF4JImplBridge.getLoggerFactory());
+    }
+}